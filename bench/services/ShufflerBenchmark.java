@@ -0,0 +1,92 @@
+package services;
+
+import java.util.Locale;
+
+
+/*
+ *  Time per shuffled track change at library sizes up to 1M tracks.
+ *
+ *  It drives Shuffler rather than TrackService.nextTrack(). In shuffle mode nextTrack() is
+ *  shuffler.next() plus an int[] lookup from id to list position, and the lookup is mirrored
+ *  here as the inLibrary test. The rest of nextTrack() is selecting the track, which notifies
+ *  the UI and appends to the play history. That cost doesn't depend on the library size, and
+ *  running it would need the real library index and write to data/.
+ *
+ *  Run from the repository root (Shuffler only needs the JDK):
+ *      javac -d /tmp/bench src/services/Shuffler.java bench/services/ShufflerBenchmark.java
+ *      java -cp /tmp/bench services.ShufflerBenchmark
+ *
+ *  Each result is the best of RUNS runs of CALLS calls. A Shuffler only has size - 1 tracks to
+ *  draw before next() runs out and returns -1, so the calls are made in batches of at most half
+ *  the library, each on a fresh Shuffler built outside the timed region. previous() walks back
+ *  over the batch next() just drew, so it times history navigation, never a draw.
+ *
+ *  Over three JDK 21 runs, all three columns grow from 10k to 1M tracks: uniform next about 6x,
+ *  although a uniform draw is O(1), and smart next about 4x, more than its O(log n) alone
+ *  accounts for. This benchmark doesn't isolate where that extra time goes.
+ */
+public class ShufflerBenchmark {
+    private static final int[] LIBRARY_SIZES = { 10_000, 100_000, 250_000, 1_000_000 };
+    private static final int CALLS = 100_000;
+    private static final int RUNS = 5;
+
+    private static long sink;   // Keeps the JIT from dropping the calls
+
+    public static void main(String[] args) {
+        measure(LIBRARY_SIZES[0]);  // Warm-up, so the first row isn't timing the JIT
+
+        System.out.println("tracks      uniform next  smart next  previous");
+        for (int size : LIBRARY_SIZES) {
+            double[] nanos = measure(size);
+            System.out.printf(Locale.ROOT, "%9d %10.0f ns %8.0f ns %7.0f ns%n", size, nanos[0], nanos[1], nanos[2]);
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    // Best nanoseconds per call for uniform next, smart next and previous
+    private static double[] measure(int size) {
+        int[] trackIds = new int[size];
+        int[] positionById = new int[size];
+        for (int i = 0; i < size; i++) {
+            trackIds[i] = i;
+            positionById[i] = i;
+        }
+
+        int batch = Math.min(CALLS, size / 2);
+        double[] best = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+        for (int run = 0; run < RUNS; run++) {
+            long uniformNanos = 0, smartNanos = 0, previousNanos = 0;
+            for (int done = 0; done < CALLS; done += batch) {
+                Shuffler shuffler = new Shuffler(trackIds, 0, id -> positionById[id] >= 0);
+                uniformNanos += timeNext(shuffler, batch);
+                previousNanos += timePrevious(shuffler, batch);
+
+                Shuffler weighted = new Shuffler(trackIds, 0, id -> positionById[id] >= 0,
+                                                 id -> 1 + (id % 5), id -> id % 997 + 1);
+                smartNanos += timeNext(weighted, batch);
+            }
+            best[0] = Math.min(best[0], uniformNanos / (double) CALLS);
+            best[1] = Math.min(best[1], smartNanos / (double) CALLS);
+            best[2] = Math.min(best[2], previousNanos / (double) CALLS);
+        }
+        return best;
+    }
+
+    // Total nanoseconds for the calls; each returns a track, as the batch fits in the pool
+    private static long timeNext(Shuffler shuffler, int calls) {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            sink += shuffler.next();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Walks back over the history timeNext() just drew
+    private static long timePrevious(Shuffler shuffler, int calls) {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            sink += shuffler.previous();
+        }
+        return System.nanoTime() - start;
+    }
+}
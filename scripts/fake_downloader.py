@@ -0,0 +1,77 @@
+#!/usr/bin/env python3
+'''
+    Stand-in for song_downloader.exe and playlist_downloader.exe that downloads nothing.
+    It prints the progress lines yt-dlp and ffmpeg would, so the download manager and the
+    Downloads window can be tried out and tested offline.
+
+    Point JukeBox at it in data/user-settings.json:
+        "downloads": {
+            "song_downloader": ["python3", "scripts/fake_downloader.py"],
+            "playlist_downloader": ["python3", "scripts/fake_downloader.py", "--playlist-size", "12"]
+        }
+'''
+
+import sys
+import time
+import random
+import argparse
+
+
+parser = argparse.ArgumentParser(description='Fake song downloader')
+parser.add_argument('--seconds', type=float, default=8.0, help='How long the fake download takes')
+parser.add_argument('--lines-per-second', type=float, default=20.0, help='How fast progress lines are printed')
+parser.add_argument('--size-mib', type=float, default=4.2, help='Reported file size')
+parser.add_argument('--fail-at', type=float, default=None, help='Exit with an error at this percentage')
+parser.add_argument('--fail-rate', type=float, default=0.0, help='Chance (0 to 1) of failing partway through')
+parser.add_argument('--extract', metavar='PLAYLIST', help='List the videos of a fake playlist')
+parser.add_argument('--video', metavar='URL', help='Download this video instead of reading a URL on stdin')
+parser.add_argument('--playlist-size', type=int, default=5, help='Videos in a fake playlist')
+args, _ = parser.parse_known_args()     # Ignores the real downloader's options
+
+if args.extract:
+    print(f'[INFO] Extracting video URLs from playlist: {args.extract}', flush=True)
+    for i in range(args.playlist_size):
+        print(f'VIDEO https://www.youtube.com/watch?v=fake{i:05d}', flush=True)
+    sys.exit(0)
+
+url = args.video if args.video else sys.stdin.readline().strip()
+if args.fail_at is None and random.random() < args.fail_rate:
+    args.fail_at = random.uniform(0, 100)
+if not url.startswith('http'):
+    print('INVALID_URL', flush=True)
+    sys.exit(1)
+
+
+def say(line):
+    print(line, flush=True)
+
+
+say(f'[youtube] Extracting URL: {url}')
+say('[info] Downloading 1 format(s): 251')
+say('[download] Destination: fake_track.webm')
+
+# Download phase: about 70% of the time, yt-dlp style lines
+steps = max(1, int(args.seconds * 0.7 * args.lines_per_second))
+for step in range(steps + 1):
+    percent = 100.0 * step / steps
+    if args.fail_at is not None and percent >= args.fail_at:
+        say('ERROR: [youtube] fake failure: HTTP Error 403: Forbidden')
+        say('DOWNLOAD_FAILED')
+        sys.exit(1)
+
+    remaining = args.seconds * 0.7 * (1 - step / steps)
+    rate_kib = args.size_mib * 1024 / (args.seconds * 0.7)
+    say(f'[download] {percent:5.1f}% of ~{args.size_mib:.2f}MiB at {rate_kib:8.2f}KiB/s ETA {int(remaining) // 60:02d}:{int(remaining) % 60:02d}')
+    time.sleep(1 / args.lines_per_second)
+
+# Conversion phase: ffmpeg style lines
+say('[ExtractAudio] Destination: fake_track.mp3')
+say('  Duration: 00:03:30.00, start: 0.000000, bitrate: 160 kb/s')
+steps = max(1, int(args.seconds * 0.3 * args.lines_per_second))
+for step in range(steps + 1):
+    done = 210.0 * step / steps
+    speed = 210.0 / (args.seconds * 0.3)
+    say(f'size=  {int(done * 16)}kB time=00:{int(done) // 60:02d}:{done % 60:05.2f} bitrate= 128.0kbits/s speed={speed:.1f}x')
+    time.sleep(1 / args.lines_per_second)
+
+say('DOWNLOAD_SUCCESS')
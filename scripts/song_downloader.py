@@ -18,18 +18,24 @@ if not url.startswith("http"):
     sys.exit(1)
 
 # Build yt-dlp command
+# --newline prints each progress update on its own line, so JukeBox can follow along
 command = [
     args.yt_dlp,
     url,
+    "--newline",
     "--ffmpeg-location", args.ffmpeg,
     "-o", output_template,
     "-x", "--audio-format", "mp3"
 ]
 
-result = subprocess.run(command, capture_output=True, text=True)
+# Pass yt-dlp's output through as it comes instead of all at the end
+process = subprocess.Popen(command, stdout=subprocess.PIPE, stderr=subprocess.STDOUT, text=True, bufsize=1)
+for line in process.stdout:
+    print(line.rstrip(), flush=True)
+returncode = process.wait()
 
-if result.returncode == 0:
+if returncode == 0:
     print("DOWNLOAD_SUCCESS")
 else:
     print("DOWNLOAD_FAILED")
-    print(result.stderr)
+    sys.exit(1)
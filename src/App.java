@@ -2,7 +2,6 @@ import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.control.MenuBar;
-import javafx.scene.control.ScrollPane;
 import javafx.scene.image.Image;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
@@ -16,6 +15,8 @@ public class App extends Application {
     private void initializeServices() {
         DownloadService.getInstance();
         TrackService.getInstance();
+        PlayHistory.getInstance();
+        SessionService.getInstance();
         SettingsService.getInstance();
     }
 
@@ -36,7 +37,7 @@ public class App extends Application {
         // Load player view from FXML
         MenuBar menuBar = FXMLLoader.load(getClass().getResource("/views/topmenu.fxml"));
         VBox playerView = FXMLLoader.load(getClass().getResource("/views/playerview.fxml"));
-        ScrollPane libraryView = FXMLLoader.load(getClass().getResource("/views/libraryview.fxml"));
+        VBox libraryView = FXMLLoader.load(getClass().getResource("/views/libraryview.fxml"));
 
         root.setTop(menuBar);
         root.setCenter(libraryView);
@@ -53,6 +54,12 @@ public class App extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        // Still on the FX thread here, so the session can copy the play queue one last time
+        SessionService.getInstance().saveNow();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
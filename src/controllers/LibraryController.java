@@ -5,14 +5,21 @@ import javafx.animation.Interpolator;
 import javafx.animation.ScaleTransition;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableListBase;
+import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.ContextMenuEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
-import javafx.scene.layout.TilePane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
@@ -21,26 +28,43 @@ import javafx.scene.text.Text;
 import javafx.util.Duration;
 
 import java.io.File;
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.function.Consumer;
 
+import models.Track;
+import services.ArtworkService;
 import services.SettingsService;
 import services.TrackService;
 
 
+/*
+ *  The library is a virtualized grid: a ListView whose items are row numbers, where every cell
+ *  lays out one row of track tiles. ListView only creates cells for the rows in the viewport
+ *  (plus one or two for scrolling) and recycles them, so the number of tile nodes depends on
+ *  the window size and not on the size of the library.
+ */
 @SuppressWarnings("unused")
 public class LibraryController {
-    private static final Image DISK_ICON = new Image("/assets/disk_icon.png");
-    
-    @FXML private ScrollPane libraryScrollPane;
-    @FXML private TilePane libraryTilePane;
+    static final Image DISK_ICON = new Image("/assets/disk_icon.png");
+    static final double TILE_WIDTH = 120;
+    static final double TILE_GAP = 20;
+    static final double ROW_PADDING = 20;
+    static final double SCROLL_BAR_WIDTH = 16;
+
+    @FXML private VBox libraryRoot;
+    @FXML private TextField searchField;
+    @FXML private ListView<Integer> libraryListView;
+
+    private final TrackRows trackRows = new TrackRows();
+    private int columns = 1;
+
+    // Either the whole library or the current search results, in library order
+    private List<Track> displayedTracks = TrackService.getInstance().getTrackList();
 
     @FXML
     private void initialize() {
 
-        // Configure scroll bar
-        libraryScrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.ALWAYS);
-
         // Set theme and listener for theme change
         Platform.runLater(() -> {
             updateBackgroundColor();
@@ -48,36 +72,209 @@ public class LibraryController {
                            .addListener((obs, oldTheme, newTheme) -> updateBackgroundColor());
         });
 
-        if (TrackService.getInstance().isMusicFolderEmpty()) {
-            Label noTracks = new Label("No tracks found.");
-            noTracks.setStyle("-fx-text-fill: gray; -fx-font-size: 16;");
-            libraryTilePane.getChildren().add(noTracks);
-            return;
+        Label noTracks = new Label("No tracks found.");
+        noTracks.setStyle("-fx-text-fill: gray; -fx-font-size: 16;");
+        libraryListView.setPlaceholder(noTracks);
+        libraryListView.setFocusTraversable(false);
+        libraryListView.setCellFactory(listView -> new TrackRowCell());
+        libraryListView.setItems(trackRows);
+
+        // Reflow the grid when the viewport width changes the number of tiles per row
+        libraryListView.widthProperty().addListener((obs, oldWidth, newWidth) -> {
+            double usableWidth = newWidth.doubleValue() - 2 * ROW_PADDING - SCROLL_BAR_WIDTH;
+            int fitting = (int) ((usableWidth + TILE_GAP) / (TILE_WIDTH + TILE_GAP));
+            fitting = Math.max(1, fitting);
+            if (fitting != columns) {
+                columns = fitting;
+                refreshRows(0);
+            }
+        });
+
+        // Build the search index ahead of the first keystroke
+        searchField.focusedProperty().addListener((obs, wasFocused, isFocused) -> {
+            if (isFocused) TrackService.getInstance().getSearchIndex();
+        });
+        searchField.textProperty().addListener((obs, oldQuery, newQuery) -> {
+            applySearch(0);
+            libraryListView.scrollTo(0);
+        });
+
+        // Scanner batches and watcher diffs only re-bind the visible cells from the first changed row on
+        TrackService.getInstance().getTrackList().addListener((ListChangeListener<Track>) change -> {
+            int firstChanged = Integer.MAX_VALUE;
+            while (change.next()) {
+                firstChanged = Math.min(firstChanged, change.getFrom());
+            }
+            applySearch(firstChanged);
+        });
+        refreshRows(0);
+    }
+
+    // Search results are recomputed as a whole, so they count as changed from the first track
+    private void applySearch(int firstChangedTrack) {
+        String query = searchField.getText();
+        boolean searching = (query != null && !query.isBlank());
+        displayedTracks = searching ? TrackService.getInstance().searchTracks(query)
+                                    : TrackService.getInstance().getTrackList();
+        refreshRows(searching ? 0 : firstChangedTrack);
+    }
+
+    // Rows from the one holding firstChangedTrack on show other tracks now
+    private void refreshRows(int firstChangedTrack) {
+        int trackCount = displayedTracks.size();
+        trackRows.setRowCount((trackCount + columns - 1) / columns, firstChangedTrack / columns);
+    }
+
+    private void updateBackgroundColor() {
+        StringBuilder backgroundStyle = new StringBuilder();
+        libraryRoot.setStyle(
+               backgroundStyle.append("-fx-background-color: ")
+                              .append("linear-gradient(to bottom, ")
+                              .append(SettingsService.getInstance().getTheme())
+                              .append(" 0%, transparent 100%), ")
+                              .append("radial-gradient(focus-angle 0deg, focus-distance 0%, center 50% 50%, radius 80%, ")
+                              .append("#14141480 30%, #14141480 30%, #00000080 60%);")
+                            .toString());
+    }
+
+
+    // --- Subclasses ---
+
+    /*
+     *  Item list of the grid ListView. The items are just the row numbers 0..rowCount-1, so they
+     *  are computed on demand instead of being stored.
+     *  Rows whose tracks changed are reported as replaced by themselves: the ListView then
+     *  re-binds just the visible cells among them, where refresh() would recreate every cell.
+     */
+    private static class TrackRows extends ObservableListBase<Integer> {
+        private int rowCount = 0;
+
+        void setRowCount(int newRowCount, int firstChangedRow) {
+            int oldRowCount = rowCount;
+            int keptRows = Math.min(oldRowCount, newRowCount);
+            int replaceFrom = Math.min(firstChangedRow, keptRows);
+            if (newRowCount == oldRowCount && replaceFrom == keptRows) return;
+
+            rowCount = newRowCount;
+
+            beginChange();
+            if (replaceFrom < keptRows) {
+                nextReplace(replaceFrom, keptRows, new RemovedRows(replaceFrom, keptRows));
+            }
+            if (newRowCount > oldRowCount) {
+                nextAdd(oldRowCount, newRowCount);
+            } else if (newRowCount < oldRowCount) {
+                nextRemove(newRowCount, new RemovedRows(newRowCount, oldRowCount));
+            }
+            endChange();
+        }
+
+        @Override
+        public Integer get(int index) {
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+
+    // Lazily computed view of the row numbers that were dropped by a shrink or replaced
+    private static class RemovedRows extends AbstractList<Integer> {
+        private final int from, to;
+
+        RemovedRows(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return from + index;
         }
 
-        List<File> list = Collections.unmodifiableList(TrackService.getInstance().getTrackList());
-        // XXX: Find a different, more memory-friendly way to create trackButtons
-        // XXX: Scroll lag
-        // FIXME: Implement lazy loading on scrollpane/tile pane
-        for (int i = 0; i < list.size(); i++) {
-            File track = list.get(i);
-            VBox trackButton = createTrackButton(track);
-            trackButton.setId(Integer.toString(i));
-            trackButton.setOnMouseClicked(event -> {
-                TrackService.getInstance().setCurrentTrackIndex(Integer.parseInt(trackButton.getId()));
-                System.out.println("Selected: " + track.getAbsolutePath()); // TODO: Potentially create a user log
-            });
-            libraryTilePane.getChildren().add(trackButton);
+        @Override
+        public int size() {
+            return to - from;
         }
     }
 
-    private VBox createTrackButton(File track) {
-        ImageView imageView = new ImageView(DISK_ICON);
-        imageView.setFitWidth(120);
-        imageView.setFitHeight(120);
+    private class TrackRowCell extends ListCell<Integer> {
+        private final HBox row = new HBox(TILE_GAP);
+
+        TrackRowCell() {
+            setText(null);
+        }
+
+        @Override
+        protected void updateItem(Integer rowIndex, boolean empty) {
+            super.updateItem(rowIndex, empty);
+
+            if (empty || rowIndex == null) {
+                setGraphic(null);
+                return;
+            }
+
+            List<Track> tracks = displayedTracks;
+            int firstIndex = rowIndex * columns;
+            int tilesInRow = Math.max(0, Math.min(columns, tracks.size() - firstIndex));
+
+            // Grow the tile pool of this cell only up to the widest row it has shown
+            while (row.getChildren().size() < tilesInRow) {
+                row.getChildren().add(new TrackTile());
+            }
+
+            for (int i = 0; i < row.getChildren().size(); i++) {
+                TrackTile tile = (TrackTile) row.getChildren().get(i);
+                if (i < tilesInRow) {
+                    tile.bind(tracks.get(firstIndex + i));
+                    tile.setVisible(true);
+                    tile.setManaged(true);
+                } else {
+                    tile.setVisible(false);
+                    tile.setManaged(false);
+                }
+            }
+            setGraphic(row);
+        }
+    }
+}
+
+
+/*
+ *  ----- TRACK TILE -----
+ *  A recyclable tile; LibraryController re-binds it to whichever track scrolls into its slot.
+ *  Tiles own no animations or listeners, hover effects are borrowed from TileAnimator.
+ */
+class TrackTile extends VBox {
+    static final double TILE_HEIGHT = 160;
+
+    private static final EventHandler<MouseEvent> ENTER_HANDLER =
+        event -> TileAnimator.hoverIn((TrackTile) event.getSource());
+    private static final EventHandler<MouseEvent> EXIT_HANDLER =
+        event -> TileAnimator.hoverOut((TrackTile) event.getSource());
+    private static final EventHandler<MouseEvent> CLICK_HANDLER = event -> {
+        if (event.getButton() == MouseButton.PRIMARY) ((TrackTile) event.getSource()).select();
+    };
+    private static final EventHandler<ContextMenuEvent> CONTEXT_MENU_HANDLER =
+        event -> ((TrackTile) event.getSource()).showQueueMenu(event);
+
+    // One menu for all tiles, pointed at whichever tile asked for it
+    private static ContextMenu queueMenu;
+    private static Track queueMenuTrack;
+
+    private final ImageView imageView = new ImageView(LibraryController.DISK_ICON);
+    private final Text text = new Text();
+    private final Rectangle clip;
+    private Track track;
+    private File artworkFile;                       // Thumbnail still on its way, if any
+    private Consumer<Image> artworkCallback;
+
+    TrackTile() {
+        imageView.setFitWidth(LibraryController.TILE_WIDTH);
+        imageView.setFitHeight(LibraryController.TILE_WIDTH);
 
-        String trackName = track.getName();
-        Text text = new Text(trackName.substring(0, trackName.length() - 4));
         text.setFill(Color.WHITE);
         text.setFont(Font.font(12));
 
@@ -92,69 +289,167 @@ public class LibraryController {
         Rectangle miniClip = new Rectangle(120, 40);
         labelPane.setClip(miniClip);
 
-        VBox trackButton = new VBox(imageView, labelPane);
-        trackButton.getStyleClass().add("tile-button");
-        trackButton.setMaxHeight(170);
+        getChildren().addAll(imageView, labelPane);
+        getStyleClass().add("tile-button");
 
-        // To clip ImageView inside VBox 
-        Rectangle clip = new Rectangle(120, 120 + labelPane.getMaxHeight()); 
+        // Fixed size, so the rounded clip never has to follow layout changes
+        setMinSize(LibraryController.TILE_WIDTH, TILE_HEIGHT);
+        setPrefSize(LibraryController.TILE_WIDTH, TILE_HEIGHT);
+        setMaxSize(LibraryController.TILE_WIDTH, TILE_HEIGHT);
+
+        // To clip ImageView inside VBox
+        clip = new Rectangle(LibraryController.TILE_WIDTH, TILE_HEIGHT);
         clip.setArcWidth(24);
         clip.setArcHeight(24);
-        trackButton.setClip(clip);
+        setClip(clip);
 
-        trackButton.layoutBoundsProperty().addListener((obs, old, bounds) -> {
-            clip.setWidth(bounds.getWidth());
-            clip.setHeight(bounds.getHeight());
-        });
+        setOnMouseEntered(ENTER_HANDLER);
+        setOnMouseExited(EXIT_HANDLER);
+        setOnMouseClicked(CLICK_HANDLER);
+        setOnContextMenuRequested(CONTEXT_MENU_HANDLER);
+    }
 
-        // Create the transition once
-        ScaleTransition scaleUp = new ScaleTransition(Duration.millis(500), trackButton);
-        scaleUp.setToX(1.05);
-        scaleUp.setToY(1.05);
+    void bind(Track newTrack) {
+        if (newTrack == track) return;
 
-        ScaleTransition scaleDown = new ScaleTransition(Duration.millis(500), trackButton);
-        scaleDown.setToX(1.0);
-        scaleDown.setToY(1.0);
+        // Same track with fresh tags keeps its artwork
+        boolean sameFile = (track != null && track.getFile().equals(newTrack.getFile()));
+        track = newTrack;
+        text.setText(track.getTitle());
+        text.setTranslateX(0);
+        if (sameFile) return;
 
-        // Create scroll animation
-        TranslateTransition scroll = new TranslateTransition(Duration.seconds(2.5), text);
-        double textWidth = text.getLayoutBounds().getWidth();
-        scroll.setInterpolator(Interpolator.LINEAR);
-        scroll.setCycleCount(Animation.INDEFINITE);
-        scroll.setAutoReverse(true);
+        // Show the disk until the thumbnail arrives; a recycled tile withdraws its old request
+        imageView.setImage(LibraryController.DISK_ICON);
+        if (artworkCallback != null) ArtworkService.getInstance().cancelRequest(artworkFile, artworkCallback);
 
-        trackButton.setOnMouseEntered(e -> {
-            scaleDown.stop();
-            scaleUp.playFromStart();
-            trackButton.setClip(null); // remove clip for jagged expansion
-            
-            if (textWidth > 120) {
-                scroll.setFromX(0);
-                scroll.setToX(-(textWidth - 100));
-                scroll.playFromStart();
+        Consumer<Image> callback = new Consumer<>() {
+            @Override
+            public void accept(Image image) {
+                imageView.setImage(image);
+                if (artworkCallback == this) artworkCallback = null;
             }
-        });
-        trackButton.setOnMouseExited(e -> {
-            scaleUp.stop();
-            scaleDown.playFromStart();
-            trackButton.setClip(clip); // restore rounded corners
-            
-            scroll.stop();
-            text.setTranslateX(0);
-        }); 
+        };
+        artworkFile = track.getFile();
+        artworkCallback = callback;
+        ArtworkService.getInstance().requestThumbnail(artworkFile, callback);
+    }
 
-        return trackButton;
+    private void select() {
+        if (track == null) return;
+        TrackService.getInstance().selectTrack(track);
+        System.out.println("Selected: " + track.getFile().getAbsolutePath()); // TODO: Potentially create a user log
     }
 
-    private void updateBackgroundColor() {
-        StringBuilder scrollPaneStyle = new StringBuilder();
-        libraryScrollPane.lookup(".viewport").setStyle(
-               scrollPaneStyle.append("-fx-background-color: ")
-                              .append("linear-gradient(to bottom, ")
-                              .append(SettingsService.getInstance().getTheme())
-                              .append(" 0%, transparent 100%), ")
-                              .append("radial-gradient(focus-angle 0deg, focus-distance 0%, center 50% 50%, radius 80%, ")
-                              .append("#14141480 30%, #14141480 30%, #00000080 60%);")
-                            .toString());
+    private void showQueueMenu(ContextMenuEvent event) {
+        if (track == null) return;
+
+        if (queueMenu == null) {
+            MenuItem playNext = new MenuItem("Play Next");
+            playNext.setOnAction(e -> TrackService.getInstance().getPlayQueue().playNext(queueMenuTrack.getId()));
+            MenuItem enqueue = new MenuItem("Add to Queue");
+            enqueue.setOnAction(e -> TrackService.getInstance().getPlayQueue().enqueue(queueMenuTrack.getId()));
+            queueMenu = new ContextMenu(playNext, enqueue);
+        }
+        queueMenuTrack = track;
+        queueMenu.show(this, event.getScreenX(), event.getScreenY());
+        event.consume();
+    }
+
+    Text getText() {
+        return text;
+    }
+
+    Rectangle getRoundedClip() {
+        return clip;
+    }
+}
+
+
+/*
+ *  ----- TILE ANIMATOR -----
+ *  Shared hover animations for all tiles. Only one tile can be hovered at a time, so a single
+ *  scale-up and text scroll transition are retargeted to it; scale-downs come from a tiny pool
+ *  because the tile that was just left may still be shrinking while the next one grows.
+ *  Nothing is allocated until the first hover.
+ */
+final class TileAnimator {
+    private static final int SCALE_DOWN_POOL_SIZE = 2;
+
+    private static ScaleTransition scaleUp;
+    private static ScaleTransition[] scaleDowns;
+    private static TranslateTransition scroll;
+    private static int nextScaleDown = 0;
+
+    private TileAnimator() {}
+
+    static void hoverIn(TrackTile tile) {
+        if (scaleUp == null) createTransitions();
+
+        for (ScaleTransition scaleDown : scaleDowns) {
+            if (scaleDown.getNode() == tile) scaleDown.stop();
+        }
+        retarget(scaleUp, tile);
+        scaleUp.playFromStart();
+        tile.setClip(null); // remove clip for jagged expansion
+
+        Text text = tile.getText();
+        double textWidth = text.getLayoutBounds().getWidth();
+        if (textWidth > 120) {
+            resetScroll();
+            scroll.setNode(text);
+            scroll.setFromX(0);
+            scroll.setToX(-(textWidth - 100));
+            scroll.playFromStart();
+        }
+    }
+
+    static void hoverOut(TrackTile tile) {
+        if (scaleUp == null) return;
+
+        if (scaleUp.getNode() == tile) scaleUp.stop();
+        ScaleTransition scaleDown = scaleDowns[nextScaleDown];
+        nextScaleDown = (nextScaleDown + 1) % SCALE_DOWN_POOL_SIZE;
+        retarget(scaleDown, tile);
+        scaleDown.playFromStart();
+        tile.setClip(tile.getRoundedClip()); // restore rounded corners
+
+        if (scroll.getNode() == tile.getText()) resetScroll();
+    }
+
+    // Snaps the node a transition is taken away from to its resting scale
+    private static void retarget(ScaleTransition transition, TrackTile tile) {
+        Node previous = transition.getNode();
+        transition.stop();
+        if (previous != null && previous != tile) {
+            previous.setScaleX(1.0);
+            previous.setScaleY(1.0);
+        }
+        transition.setNode(tile);
+    }
+
+    private static void resetScroll() {
+        scroll.stop();
+        if (scroll.getNode() != null) {
+            scroll.getNode().setTranslateX(0);
+        }
+    }
+
+    private static void createTransitions() {
+        scaleUp = new ScaleTransition(Duration.millis(500));
+        scaleUp.setToX(1.05);
+        scaleUp.setToY(1.05);
+
+        scaleDowns = new ScaleTransition[SCALE_DOWN_POOL_SIZE];
+        for (int i = 0; i < SCALE_DOWN_POOL_SIZE; i++) {
+            scaleDowns[i] = new ScaleTransition(Duration.millis(500));
+            scaleDowns[i].setToX(1.0);
+            scaleDowns[i].setToY(1.0);
+        }
+
+        scroll = new TranslateTransition(Duration.seconds(2.5));
+        scroll.setInterpolator(Interpolator.LINEAR);
+        scroll.setCycleCount(Animation.INDEFINITE);
+        scroll.setAutoReverse(true);
     }
-}
\ No newline at end of file
+}
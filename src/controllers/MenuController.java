@@ -1,10 +1,20 @@
 package controllers;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.WeakInvalidationListener;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableListBase;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
@@ -14,20 +24,39 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.Dragboard;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.TransferMode;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
+import models.Track;
+import services.DownloadJob;
 import services.DownloadService;
+import services.PlayQueue;
+import services.PlaylistService;
 import services.SettingsService;
+import services.TrackService;
 import controllers.DownloadDialog.ServiceRequest;
 
 
@@ -45,6 +74,12 @@ public class MenuController {
     @FXML private MenuItem fcb001Theme;
 
     @FXML private MenuItem loudnessMenuItem;
+    @FXML private CheckMenuItem albumGainMenuItem;
+    @FXML private Menu normalizerTargetMenu;
+    @FXML private Menu crossfadeMenu;
+    @FXML private Menu playlistsMenu;
+    @FXML private Menu concurrentDownloadsMenu;
+    @FXML private Menu playlistWorkersMenu;
 
     @FXML @SuppressWarnings("unused")
     private void initialize() {
@@ -65,6 +100,57 @@ public class MenuController {
                 (SettingsService.getInstance().isNormalizerEnabled()) ? 
                                 "Disable " : "Enable ") + "Loudness Normalizer");
         });
+
+        // Takes effect from the next track on
+        albumGainMenuItem.setSelected(SettingsService.getInstance().isAlbumGainEnabled());
+        albumGainMenuItem.setOnAction(e ->
+            SettingsService.getInstance().enableAlbumGain(albumGainMenuItem.isSelected()));
+
+        // Target loudness of the realtime normalizer, from quiet to loud
+        ToggleGroup targetGroup = new ToggleGroup();
+        String[] targetNames = { "Quiet", "Soft", "Normal", "Loud", "Very Loud" };
+        double[] targetLevels = { -18.0, -13.0, SettingsService.DEFAULT_NORMALIZER_TARGET, -6.0, -3.0 };
+        for (int i = 0; i < targetLevels.length; i++) {
+            final double targetDb = targetLevels[i];
+            RadioMenuItem item = new RadioMenuItem(String.format("%s (%.0f dB)", targetNames[i], targetDb));
+            item.setToggleGroup(targetGroup);
+            item.setSelected(targetDb == SettingsService.getInstance().getNormalizerTarget());
+            item.setOnAction(e -> SettingsService.getInstance().setNormalizerTarget(targetDb));
+            normalizerTargetMenu.getItems().add(item);
+        }
+
+        // Crossfade lengths in 2 second steps, radio-selected from the current setting
+        ToggleGroup crossfadeGroup = new ToggleGroup();
+        for (int seconds = 0; seconds <= SettingsService.MAX_CROSSFADE_SECONDS; seconds += 2) {
+            final int crossfadeSeconds = seconds;
+            RadioMenuItem item = new RadioMenuItem((seconds == 0) ? "Off" : seconds + " seconds");
+            item.setToggleGroup(crossfadeGroup);
+            item.setSelected(seconds == SettingsService.getInstance().getCrossfadeSeconds());
+            item.setOnAction(e -> SettingsService.getInstance().setCrossfadeSeconds(crossfadeSeconds));
+            crossfadeMenu.getItems().add(item);
+        }
+
+        // Downloads beyond this many wait their turn in the download queue
+        ToggleGroup downloadsGroup = new ToggleGroup();
+        for (int count = 1; count <= SettingsService.MAX_CONCURRENT_DOWNLOADS; count *= 2) {
+            final int downloadCount = count;
+            RadioMenuItem item = new RadioMenuItem(String.valueOf(count));
+            item.setToggleGroup(downloadsGroup);
+            item.setSelected(count == SettingsService.getInstance().getMaxConcurrentDownloads());
+            item.setOnAction(e -> SettingsService.getInstance().setMaxConcurrentDownloads(downloadCount));
+            concurrentDownloadsMenu.getItems().add(item);
+        }
+
+        // One video at a time with long pauses, or a few side by side at a steady pace
+        ToggleGroup workersGroup = new ToggleGroup();
+        for (int count = 1; count <= SettingsService.MAX_CONCURRENT_DOWNLOADS; count *= 2) {
+            final int workerCount = count;
+            RadioMenuItem item = new RadioMenuItem((count == 1) ? "One at a Time" : count + " in Parallel");
+            item.setToggleGroup(workersGroup);
+            item.setSelected(count == SettingsService.getInstance().getPlaylistWorkers());
+            item.setOnAction(e -> SettingsService.getInstance().setPlaylistWorkers(workerCount));
+            playlistWorkersMenu.getItems().add(item);
+        }
     }
 
     @FXML
@@ -72,6 +158,58 @@ public class MenuController {
         new EqualizerDialog().showAndWait();
     }
 
+    @FXML
+    private void handleUpNext(ActionEvent event) {
+        new UpNextDialog().showAndWait();
+    }
+
+    @FXML
+    private void clearQueue(ActionEvent event) {
+        TrackService.getInstance().getPlayQueue().clear();
+    }
+
+    // Rebuilt each time the menu opens, so it lists the playlists as they are on disk
+    @FXML
+    private void refreshPlaylists() {
+        PlaylistService playlists = PlaylistService.getInstance();
+
+        MenuItem saveItem = new MenuItem("Save Queue As Playlist...");
+        saveItem.setDisable(TrackService.getInstance().getPlayQueue().isEmpty());
+        saveItem.setOnAction(e -> askPlaylistName("Save Queue As Playlist", "").ifPresent(name ->
+            runPlaylistAction("save", () ->
+                playlists.save(name, TrackService.getInstance().getPlayQueue().toArray()))));
+
+        MenuItem importItem = new MenuItem("Import M3U...");
+        importItem.setOnAction(e -> importPlaylist());
+
+        playlistsMenu.getItems().setAll(saveItem, importItem);
+        List<String> names = playlists.getPlaylistNames();
+        if (!names.isEmpty()) playlistsMenu.getItems().add(new SeparatorMenuItem());
+
+        for (String name : names) {
+            MenuItem playItem = new MenuItem("Play");
+            playItem.setOnAction(e -> runPlaylistAction("open", () -> {
+                TrackService.getInstance().getPlayQueue().setAll(playlists.loadTrackIds(name));
+                TrackService.getInstance().nextTrack();
+            }));
+
+            MenuItem queueItem = new MenuItem("Add to Queue");
+            queueItem.setOnAction(e -> runPlaylistAction("open", () ->
+                TrackService.getInstance().getPlayQueue().enqueueAll(playlists.loadTrackIds(name))));
+
+            MenuItem exportItem = new MenuItem("Export M3U...");
+            exportItem.setOnAction(e -> exportPlaylist(name));
+
+            MenuItem deleteItem = new MenuItem("Delete");
+            deleteItem.setOnAction(e -> runPlaylistAction("delete", () -> playlists.delete(name)));
+
+            Menu playlistMenu = new Menu(name);
+            playlistMenu.setMnemonicParsing(false);
+            playlistMenu.getItems().addAll(playItem, queueItem, exportItem, deleteItem);
+            playlistsMenu.getItems().add(playlistMenu);
+        }
+    }
+
     @FXML
     private void handleAbout(ActionEvent event) {
         showInfo("About", "JukeBox\nVersion 1.0\nDeveloped by Sadge");
@@ -87,6 +225,62 @@ public class MenuController {
         new DownloadDialog(ServiceRequest.Playlist).showAndWait();
     }
 
+    @FXML
+    private void handleDownloads() {
+        new DownloadsDialog().show();
+    }
+
+    private void importPlaylist() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import M3U Playlist");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("M3U Playlists", "*.m3u", "*.m3u8"));
+        File file = chooser.showOpenDialog(playlistsMenu.getParentPopup().getOwnerWindow());
+        if (file == null) return;
+
+        String suggested = file.getName().replaceFirst("(?i)\\.m3u8?$", "");
+        askPlaylistName("Import M3U Playlist", suggested).ifPresent(name -> runPlaylistAction("import", () -> {
+            PlaylistService.ImportResult result = PlaylistService.getInstance().importM3u(file.toPath(), name);
+            if (result.getSkipped() > 0) {
+                showInfo("Import M3U Playlist", result.getImported() + " track(s) imported.\n"
+                        + result.getSkipped() + " entries aren't in the library and were skipped.");
+            }
+        }));
+    }
+
+    private void exportPlaylist(String name) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export M3U Playlist");
+        chooser.setInitialFileName(name + ".m3u8");
+        chooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("M3U8 Playlist (UTF-8)", "*.m3u8"),
+            new FileChooser.ExtensionFilter("M3U Playlist", "*.m3u"));
+        File file = chooser.showSaveDialog(playlistsMenu.getParentPopup().getOwnerWindow());
+        if (file == null) return;
+
+        runPlaylistAction("export", () -> PlaylistService.getInstance().exportM3u(name, file.toPath()));
+    }
+
+    private Optional<String> askPlaylistName(String title, String suggested) {
+        TextInputDialog dialog = new TextInputDialog(suggested);
+        dialog.setTitle(title);
+        dialog.setHeaderText(null);
+        dialog.setContentText("Playlist name:");
+        return dialog.showAndWait().map(String::strip).filter(name -> !name.isEmpty());
+    }
+
+    private void runPlaylistAction(String action, PlaylistAction body) {
+        try {
+            body.run();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to " + action + " playlist: " + e.getMessage());
+            showInfo("Playlists", "Failed to " + action + " the playlist.\n" + e.getMessage());
+        }
+    }
+
+    private interface PlaylistAction {
+        void run() throws IOException;
+    }
+
     @Deprecated
     private void showInfo(String title, String content) {
         Alert alert = new Alert(AlertType.INFORMATION);
@@ -308,3 +502,284 @@ class EqualizerDialog extends Stage {
         setScene(scene);
     }
 }
+
+
+/*
+ *  ----- UP NEXT DIALOG BOX -----
+ *  Shows the play queue; entries are reordered by dragging and removed with the Delete key or
+ *  the Remove button. The list items are just the queue positions, computed on demand, so the
+ *  dialog stays light for very long queues.
+ */
+@SuppressWarnings("unused")
+class UpNextDialog extends Stage {
+
+    private final PlayQueue queue = TrackService.getInstance().getPlayQueue();
+    private final QueueRows rows = new QueueRows();
+    private final ListView<Integer> listView = new ListView<>(rows);
+    private final Label countLabel = new Label();
+    private final ChangeListener<Number> queueListener = (obs, oldRevision, newRevision) -> refresh();
+
+    UpNextDialog() {
+        setTitle("Up Next");
+        initModality(Modality.APPLICATION_MODAL);
+
+        Label placeholder = new Label("Nothing queued. Right-click a track to play it next.");
+        placeholder.getStyleClass().add("placeholder-label");
+        listView.setPlaceholder(placeholder);
+        listView.setCellFactory(view -> new QueueCell());
+        listView.setPrefSize(480, 400);
+        listView.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.DELETE) removeSelected();
+        });
+
+        Button removeButton = new Button("Remove");
+        removeButton.setOnAction(e -> removeSelected());
+        removeButton.disableProperty().bind(listView.getSelectionModel().selectedIndexProperty().lessThan(0));
+
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(e -> queue.clear());
+
+        Button closeButton = new Button("Close");
+        closeButton.setOnAction(e -> close());
+
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox buttonRow = new HBox(10, countLabel, spacer, removeButton, clearButton, closeButton);
+        buttonRow.setAlignment(Pos.CENTER_LEFT);
+
+        VBox root = new VBox(10, listView, buttonRow);
+        root.setPadding(new Insets(20));
+        VBox.setVgrow(listView, Priority.ALWAYS);
+
+        // The queue outlives the dialog, so the listener must not keep the dialog reachable
+        queue.revisionProperty().addListener(queueListener);
+        setOnHidden(e -> queue.revisionProperty().removeListener(queueListener));
+        refresh();
+
+        Scene scene = new Scene(root);
+        scene.getStylesheets().add(getClass().getResource("/styles/upnextdialog.css").toExternalForm());
+        setScene(scene);
+    }
+
+    private void refresh() {
+        rows.setRowCount(queue.size());
+        listView.refresh();
+        countLabel.setText(queue.size() + ((queue.size() == 1) ? " track" : " tracks"));
+    }
+
+    private void removeSelected() {
+        int index = listView.getSelectionModel().getSelectedIndex();
+        if (index < 0 || index >= queue.size()) return;
+
+        queue.remove(index);
+        listView.getSelectionModel().select(Math.min(index, queue.size() - 1));
+    }
+
+
+    // --- Subclasses ---
+
+    // Queue positions 0..rowCount-1, as the item list of the ListView
+    private static class QueueRows extends ObservableListBase<Integer> {
+        private int rowCount = 0;
+
+        void setRowCount(int newRowCount) {
+            if (newRowCount == rowCount) return;
+
+            int oldRowCount = rowCount;
+            rowCount = newRowCount;
+
+            beginChange();
+            if (newRowCount > oldRowCount) {
+                nextAdd(oldRowCount, newRowCount);
+            } else {
+                nextRemove(newRowCount, new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int index) {
+                        return newRowCount + index;
+                    }
+
+                    @Override
+                    public int size() {
+                        return oldRowCount - newRowCount;
+                    }
+                });
+            }
+            endChange();
+        }
+
+        @Override
+        public Integer get(int index) {
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+
+    // Shows the track at its queue position; dragging a cell onto another moves it there
+    private class QueueCell extends ListCell<Integer> {
+
+        QueueCell() {
+            setOnDragDetected(e -> {
+                if (isEmpty()) return;
+                Dragboard dragboard = startDragAndDrop(TransferMode.MOVE);
+                ClipboardContent content = new ClipboardContent();
+                content.putString(Integer.toString(getIndex()));
+                dragboard.setContent(content);
+                e.consume();
+            });
+
+            setOnDragOver(e -> {
+                if (e.getGestureSource() instanceof QueueCell && e.getDragboard().hasString()) {
+                    e.acceptTransferModes(TransferMode.MOVE);
+                }
+                e.consume();
+            });
+
+            setOnDragDropped(e -> {
+                int from = Integer.parseInt(e.getDragboard().getString());
+                int to = isEmpty() ? queue.size() - 1 : getIndex();
+                if (from >= 0 && from < queue.size() && to >= 0) {
+                    queue.move(from, to);
+                    listView.getSelectionModel().select(to);
+                }
+                e.setDropCompleted(true);
+                e.consume();
+            });
+        }
+
+        @Override
+        protected void updateItem(Integer position, boolean empty) {
+            super.updateItem(position, empty);
+
+            if (empty || position == null || position >= queue.size()) {
+                setText(null);
+                return;
+            }
+
+            Track track = TrackService.getInstance().getTrackById(queue.get(position));
+            setText((position + 1) + ".  " + ((track != null) ? track.getDisplayName() : "(no longer in library)"));
+        }
+    }
+}
+
+
+
+/*
+ *  ----- DOWNLOADS DIALOG BOX -----
+ *  Lists queued, running and recent downloads with their live progress. Not modal, so it can
+ *  stay open while the downloads run; progress arrives a few times a second at most (see
+ *  DownloadJob), so an open dialog costs little.
+ */
+@SuppressWarnings("unused")
+class DownloadsDialog extends Stage {
+
+    private final ListView<DownloadJob> listView = new ListView<>();
+    private final ChangeListener<List<DownloadJob>> jobsListener =
+        (obs, oldJobs, newJobs) -> listView.getItems().setAll(newJobs);
+
+    DownloadsDialog() {
+        setTitle("Downloads");
+
+        Label placeholder = new Label("No downloads yet.");
+        placeholder.getStyleClass().add("placeholder-label");
+        listView.setPlaceholder(placeholder);
+        listView.setCellFactory(view -> new JobCell());
+        listView.setPrefSize(520, 360);
+        listView.setItems(FXCollections.observableArrayList(DownloadService.getInstance().getJobs()));
+
+        Button cancelButton = new Button("Cancel Download");
+        cancelButton.setOnAction(e -> {
+            DownloadJob job = listView.getSelectionModel().getSelectedItem();
+            if (job != null) job.cancel();
+        });
+        cancelButton.disableProperty().bind(listView.getSelectionModel().selectedItemProperty().isNull());
+
+        Button closeButton = new Button("Close");
+        closeButton.setOnAction(e -> close());
+
+        HBox buttonRow = new HBox(10, cancelButton, closeButton);
+        buttonRow.setAlignment(Pos.CENTER_RIGHT);
+
+        VBox root = new VBox(10, listView, buttonRow);
+        root.setPadding(new Insets(20));
+        VBox.setVgrow(listView, Priority.ALWAYS);
+
+        // The service outlives the dialog, so the listener must not keep the dialog reachable
+        DownloadService.getInstance().jobsProperty().addListener(jobsListener);
+        setOnHidden(e -> DownloadService.getInstance().jobsProperty().removeListener(jobsListener));
+
+        Scene scene = new Scene(root);
+        scene.getStylesheets().add(getClass().getResource("/styles/downloadsdialog.css").toExternalForm());
+        setScene(scene);
+    }
+
+
+    // --- Subclasses ---
+
+    // Link, state and progress of one job, following the job's properties while it is shown
+    private static class JobCell extends ListCell<DownloadJob> {
+        private final Label titleLabel = new Label();
+        private final ProgressBar progressBar = new ProgressBar(0);
+        private final Label statusLabel = new Label();
+        private final VBox content = new VBox(4, titleLabel, progressBar, statusLabel);
+        private final InvalidationListener statusListener = obs -> showStatus();
+        private final WeakInvalidationListener jobListener = new WeakInvalidationListener(statusListener);   // Jobs outlive the cell
+        private DownloadJob job;
+
+        JobCell() {
+            progressBar.setMaxWidth(Double.MAX_VALUE);
+            statusLabel.getStyleClass().add("status-label");
+        }
+
+        @Override
+        protected void updateItem(DownloadJob newJob, boolean empty) {
+            super.updateItem(newJob, empty);
+
+            if (job != null) {
+                job.stateProperty().removeListener(jobListener);
+                job.progressProperty().removeListener(jobListener);
+            }
+            job = empty ? null : newJob;
+            if (job == null) {
+                setGraphic(null);
+                return;
+            }
+
+            job.stateProperty().addListener(jobListener);
+            job.progressProperty().addListener(jobListener);
+            String source = (job.getUrl() != null) ? job.getUrl() : "Resuming saved playlist queue";
+            titleLabel.setText((job.getKind() == DownloadJob.Kind.PLAYLIST ? "Playlist: " : "Song: ") + source);
+            showStatus();
+            setGraphic(content);
+        }
+
+        private void showStatus() {
+            switch (job.stateProperty().get()) {
+                case QUEUED -> {
+                    progressBar.setProgress(0);
+                    statusLabel.setText("Queued");
+                }
+                case RUNNING -> {
+                    progressBar.setProgress(job.progressProperty().get().getFraction());
+                    statusLabel.setText(job.progressProperty().get().toString());
+                }
+                case DONE -> {
+                    progressBar.setProgress(1);
+                    statusLabel.setText("Done");
+                }
+                case FAILED -> {
+                    progressBar.setProgress(0);
+                    List<String> output = job.getOutput();
+                    statusLabel.setText("Failed" + (output.isEmpty() ? "" : ": " + output.get(output.size() - 1)));
+                }
+                case CANCELLED -> {
+                    progressBar.setProgress(0);
+                    statusLabel.setText("Cancelled");
+                }
+            }
+        }
+    }
+}
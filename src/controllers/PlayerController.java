@@ -15,8 +15,13 @@ import java.io.File;
 import java.util.Timer;
 import java.util.TimerTask;
 
-import services.Equalizer;
+import models.Track;
+import services.AudioChain;
+import services.CrossfadeEngine;
 import services.LoudnessNormalizer;
+import services.PlayHistory;
+import services.PlayQueue;
+import services.SessionService;
 import services.SettingsService;
 import services.TrackService;
 
@@ -31,15 +36,31 @@ public class PlayerController {
 
     private MediaPlayer mediaPlayer;
 
-    private ChangeListener<Number> volumeListener;
+    // Silent player holding the upcoming track, prerolled while the current one plays
+    private MediaPlayer preloadedPlayer;
+    private Track preloadedTrack;
+
+    // Fades into the pre-buffered player near the end of a track when crossfade is enabled
+    private final CrossfadeEngine crossfadeEngine = new CrossfadeEngine();
+    private LoudnessNormalizer normalizer;
+    private boolean crossfadeRequested = false;
+    private double crossfadeLength;
+
     private ChangeListener<Duration> timeListener;
 
+    // For the play history: a track replaced before it finished may count as skipped
+    private Track playingTrack;
+    private boolean playingTrackFinished = false;
+
     private boolean isManuallySeeking = false;
 
+    // Set while the last session's track is loaded: it opens paused at this position
+    private Duration pendingResumeOffset;
+
     private enum LoopMode { OFF, ALL, ONE } 
     private LoopMode currentLoopMode = LoopMode.OFF;
 
-    private enum ShuffleMode { OFF, ON } 
+    private enum ShuffleMode { OFF, ON, SMART } 
     private ShuffleMode currentShuffleMode = ShuffleMode.OFF;
 
     // FIXME: Settings
@@ -62,6 +83,13 @@ public class PlayerController {
                 }
             });
 
+            // Queue edits change what plays next; deferred so a track taken from the queue
+            // is handed its pre-buffered player before a new candidate is picked
+            PlayQueue queue = TrackService.getInstance().getPlayQueue();
+            queue.revisionProperty()
+                 .addListener((obs, oldRevision, newRevision) -> Platform.runLater(this::onQueueChanged));
+            SessionService.getInstance().watchQueue(queue);
+
             // Listen for theme change
             SettingsService.getInstance().themeProperty()
                            .addListener((obs, oldTheme, newTheme) -> {
@@ -70,16 +98,20 @@ public class PlayerController {
                     setTheme();
                 }
             });
+
+            restoreSession();
         });
 
         // Set track info label
         trackInfoLabel.setText("No track playing");
 
-        // Update volume slider gradient and icon
+        // Update volume slider gradient and icon, and the volume of whatever is playing
         volumeSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
             updateVolumeSliderColor(newVal.doubleValue());
             updateVolumeIcon(newVal.doubleValue());
+            AudioChain.getInstance().setBaseVolume(newVal.doubleValue() / 100.0);
         });
+        AudioChain.getInstance().setBaseVolume(volumeSlider.getValue() / 100.0);
 
         // Get lastVolume value for mute button
         volumeSlider.valueChangingProperty().addListener((obs, wasChanging, isChanging) -> {
@@ -102,10 +134,10 @@ public class PlayerController {
 
         // Action on play/pause button
         playPauseButton.setOnAction(e -> {
-            String fileName = TrackService.getInstance().getSelectedTrack().getName();
-            String trackName = fileName.substring(0, fileName.length() - 4);
+            String trackName = TrackService.getInstance().getSelectedTrack().getDisplayName();
             switch(mediaPlayer.getStatus()) {
                 case MediaPlayer.Status.PLAYING -> {
+                    crossfadeEngine.finish();
                     mediaPlayer.pause();
                     playPauseButton.setText("▶");
                     trackInfoLabel.setText("Paused: " + trackName);
@@ -132,7 +164,7 @@ public class PlayerController {
         previousButton.setOnAction(e -> {
             if (mediaPlayer.getCurrentTime().toSeconds() > 1) {
                 mediaPlayer.seek(Duration.ZERO);
-                if (currentLoopMode != LoopMode.ALL && currentShuffleMode != ShuffleMode.ON
+                if (currentLoopMode != LoopMode.ALL && currentShuffleMode == ShuffleMode.OFF
                         && TrackService.getInstance().getCurrentTrackIndex() == 0) {
                     delayButtonEnable(previousButton);
                 } 
@@ -157,9 +189,8 @@ public class PlayerController {
         nextButton.setOnAction(e -> {
             if (currentLoopMode == LoopMode.ALL) {
                 if (!TrackService.getInstance().nextTrack()) {
-                    if (currentShuffleMode == ShuffleMode.ON) {
-                        TrackService.getInstance().disableShuffle();
-                        TrackService.getInstance().enableShuffle();
+                    if (currentShuffleMode != ShuffleMode.OFF) {
+                        TrackService.getInstance().reshuffle();
                     } else {
                         TrackService.getInstance().setCurrentTrackIndex(0);
                     }
@@ -173,11 +204,17 @@ public class PlayerController {
         setPlaybackControlsEnabled(false);
     }
 
-    private void loadAndPlayTrack(File file) throws MediaException {
+    private void loadAndPlayTrack(Track track) throws MediaException {
+        boolean crossfade = crossfadeRequested;
+        crossfadeRequested = false;
+        crossfadeEngine.finish();
+        Duration resumeOffset = pendingResumeOffset;
+        pendingResumeOffset = null;
+
+        File file = track.getFile();
         if (!file.exists() || !file.canRead()) {
             if (mediaPlayer != null) {
-                String fileName = TrackService.getInstance().getSelectedTrack().getName();
-                String trackName = fileName.substring(0, fileName.length() - 4);
+                String trackName = track.getDisplayName();
                 mediaPlayer.pause();
                 playPauseButton.setText("▶");
                 trackInfoLabel.setText("Paused: " + trackName);
@@ -192,88 +229,63 @@ public class PlayerController {
             return;
         }
 
+        // Take over the pre-buffered player when it holds this track, so playback starts at once
+        MediaPlayer bufferedPlayer = takePreloadedPlayer(track);
+        crossfade = crossfade && (bufferedPlayer != null) && (mediaPlayer != null);
+
+        recordSkipIfCutShort();
+        playingTrack = track;
+        playingTrackFinished = false;
+
+        MediaPlayer outgoingPlayer = mediaPlayer;
+        LoudnessNormalizer outgoingNormalizer = normalizer;
         if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            
             // Kill listeners and event handlers
-            volumeSlider.valueProperty().removeListener(volumeListener);
             mediaPlayer.currentTimeProperty().removeListener(timeListener);
             trackSlider.setOnMousePressed(null);
             trackSlider.setOnMouseReleased(null);
-            
-            mediaPlayer.dispose();
-        }
-        
-        Media media = new Media(file.toURI().toString());
-        mediaPlayer = new MediaPlayer(media);
-
-        Equalizer equalizer = new Equalizer(mediaPlayer);
-        for (int i = 0; i < 10; i++) {
-            final int bandIndex = i;
-            equalizer.setBandGain(bandIndex, SettingsService.getInstance().getGainValue(bandIndex));
-            SettingsService.getInstance().gainProperty(bandIndex)
-                           .addListener((obs, oldVal, newVal) -> {
-                if (newVal != null && newVal.doubleValue() != oldVal.doubleValue()) {
-                    equalizer.setBandGain(bandIndex, newVal.doubleValue());
-                }
-            });
-        }
 
-        LoudnessNormalizer normalizer = new LoudnessNormalizer(mediaPlayer);
-        volumeSlider.valueProperty().addListener(
-            (obs, oldVal, newVal) -> normalizer.setBaseVolume(newVal.doubleValue()));
-
-        String fileName = file.getName();
-        String trackName = fileName.substring(0, fileName.length() - 4);
-        trackInfoLabel.setText("Playing: " + trackName);
-
-        mediaPlayer.setVolume(volumeSlider.getValue() / 100);
-        mediaPlayer.play();
-        playPauseButton.setText("II");
-
-        mediaPlayer.setOnReady(() -> {
-            Duration total = media.getDuration();
-            trackSlider.setMax(total.toSeconds());
-            totalTimeLabel.setText(formatTime(total));
-
-            System.out.println("Equalizer bands info");
-            mediaPlayer.getAudioEqualizer().getBands().forEach(band -> {
-                System.out.printf(
-                            "Center: %.1f Hz, Bandwidth: %.1f Hz, Gain: %.1f dB%n",
-                            band.getCenterFrequency(),
-                            band.getBandwidth(),
-                            band.getGain());
-            });
+            // A crossfading player keeps playing and is detached and disposed by the engine
+            if (crossfade) {
+                mediaPlayer.setOnEndOfMedia(null);
+            } else {
+                AudioChain.getInstance().detach(mediaPlayer);
+                mediaPlayer.stop();
+                mediaPlayer.dispose();
+            }
+        }
 
-            switch(currentLoopMode) {
-                case ALL -> {
-                    previousButton.setDisable(false);
-                    nextButton.setDisable(false);
-                }
-                default -> {
-                    if (currentShuffleMode == ShuffleMode.OFF) {
-                        int currIndex = TrackService.getInstance().getCurrentTrackIndex();
-                        if (currIndex == 0) {
-                            delayButtonEnable(previousButton); 
-                        } else if (currIndex == 
-                                    TrackService.getInstance().getTrackList().size() - 1) {
-                            nextButton.setDisable(true);
-                        } else {
-                            previousButton.setDisable(false);
-                            nextButton.setDisable(false);
-                        }
-                    } else {
-                        previousButton.setDisable(false);
-                        nextButton.setDisable(false);
-                    }
-                }
+        mediaPlayer = (bufferedPlayer != null)
+                    ? bufferedPlayer
+                    : new MediaPlayer(new Media(file.toURI().toString()));
+        Media media = mediaPlayer.getMedia();
+        boolean alreadyReady = (mediaPlayer.getStatus() == MediaPlayer.Status.READY);
+
+        // Equalizer, leveling and volume follow the settings through the shared chain
+        normalizer = AudioChain.getInstance().attach(mediaPlayer);
+        normalizer.setStaticGain(TrackService.getInstance().getLoudnessGain(track));
+
+        String trackName = track.getDisplayName();
+        if (resumeOffset != null) {
+            // Restored from the last session: waits paused until play is pressed
+            trackInfoLabel.setText("Paused: " + trackName);
+            playPauseButton.setText("▶");
+        } else {
+            trackInfoLabel.setText("Playing: " + trackName);
+            if (crossfade) normalizer.setFadeGain(0.0);
+            mediaPlayer.play();
+            playPauseButton.setText("II");
+            if (crossfade) {
+                crossfadeEngine.start(outgoingPlayer, outgoingNormalizer, normalizer, crossfadeLength);
             }
-        });
+        }
 
-        // Update mediaPlayer volume with volumeSlider
-        volumeListener = (obs, oldVal, newVal) -> {
-            mediaPlayer.setVolume(newVal.doubleValue() / 100.0);
-        };
+        // A pre-buffered player is READY already and won't fire onReady again
+        if (alreadyReady) {
+            onTrackReady(media, resumeOffset);
+        } else {
+            mediaPlayer.setOnReady(() -> onTrackReady(media, resumeOffset));
+        }
 
         // Update trackSlider while media is playing
         timeListener = (obs, oldTime, newTime) -> {
@@ -281,9 +293,10 @@ public class PlayerController {
                 trackSlider.setValue(newTime.toSeconds());
                 currentTimeLabel.setText(formatTime(newTime));
             }
+            if (shouldStartCrossfade(newTime)) startCrossfade(newTime);
+            SessionService.getInstance().setPosition((long) newTime.toMillis());
         };
         
-        volumeSlider.valueProperty().addListener(volumeListener);
         mediaPlayer.currentTimeProperty().addListener(timeListener);
 
         // Seek timestamp in media using trackSlider
@@ -302,6 +315,8 @@ public class PlayerController {
                 case ONE -> currentLoopMode = LoopMode.OFF;
             }
             updateLoopButton();
+            updateSession();
+            preloadNextTrack();
         });
 
         // Shuffle button actions
@@ -314,23 +329,241 @@ public class PlayerController {
                     previousButton.setDisable(false);
                     System.out.println("Shuffle button was supposedly enabled");
                     TrackService.getInstance().enableShuffle();
-                    shuffleButton.setStyle(String.format(
-                                    "-fx-background-color: %s; -fx-opacity: 1;", 
-                                    SettingsService.getInstance().getTheme()));
                 }
                 case ON -> {
+                    // Switch to smart shuffle
+                    currentShuffleMode = ShuffleMode.SMART;
+                    TrackService.getInstance().enableSmartShuffle();
+                }
+                case SMART -> {
                     // Turn it off
                     currentShuffleMode = ShuffleMode.OFF;
                     System.out.println("Shuffle button was supposedly disabled");
                     TrackService.getInstance().disableShuffle();
-                    shuffleButton.setStyle(String.format(
-                                    "-fx-background-color: %s; -fx-opacity: 0.3;", 
-                                    SettingsService.getInstance().getTheme()));
                 }
             }
+            updateShuffleButton();
+            updateSession();
+            preloadNextTrack();
         });
 
         setPlaybackControlsEnabled(true);
+        updateSession();
+    }
+
+    /*
+     *  Picks up where the last session left off: same queue, modes and track, with the track
+     *  loaded paused at the saved position. The player opens the file asynchronously, so this
+     *  returns right away and the seek happens once the media is ready.
+     *  ->  The shuffle starts fresh from the restored track; the old shuffle order isn't kept
+     *  ->  Nothing is restored when the track has left the library
+     */
+    private void restoreSession() {
+        SessionService session = SessionService.getInstance();
+        TrackService.getInstance().getPlayQueue().setAll(session.getQueue());
+
+        try {
+            currentLoopMode = LoopMode.valueOf(session.getLoopMode());
+        } catch (IllegalArgumentException e) {
+            currentLoopMode = LoopMode.OFF;
+        }
+
+        pendingResumeOffset = Duration.millis(session.getPositionMillis());
+        boolean restored = TrackService.getInstance().restoreTrack(session.getTrackId(), session.getResumeTrackId());
+        pendingResumeOffset = null;
+        if (!restored) {
+            currentLoopMode = LoopMode.OFF;
+            return;
+        }
+
+        try {
+            currentShuffleMode = ShuffleMode.valueOf(session.getShuffleMode());
+        } catch (IllegalArgumentException e) {
+            currentShuffleMode = ShuffleMode.OFF;
+        }
+        switch(currentShuffleMode) {
+            case ON -> TrackService.getInstance().enableShuffle();
+            case SMART -> TrackService.getInstance().enableSmartShuffle();
+        }
+        updateShuffleButton();
+        updateSession();
+        System.out.println("[INFO] Restored last session at " + formatTime(Duration.millis(session.getPositionMillis())));
+    }
+
+    // Everything but the position and queue, which are saved as they change
+    private void updateSession() {
+        Track selected = TrackService.getInstance().getSelectedTrack();
+        if (selected == null) return;
+        SessionService.getInstance().setTrack(selected.getId(), TrackService.getInstance().getResumeTrackId());
+        SessionService.getInstance().setModes(currentLoopMode.name(), currentShuffleMode.name());
+    }
+
+    // True once the playing track is within the crossfade length of its end and the next one is buffered
+    private boolean shouldStartCrossfade(Duration currentTime) {
+        int seconds = SettingsService.getInstance().getCrossfadeSeconds();
+        if (seconds == 0 || currentLoopMode == LoopMode.ONE || crossfadeEngine.isFading()) return false;
+        if (mediaPlayer.getStatus() != MediaPlayer.Status.PLAYING) return false;
+        if (preloadedPlayer == null || preloadedPlayer.getStatus() != MediaPlayer.Status.READY) return false;
+
+        Duration total = mediaPlayer.getTotalDuration();
+        if (total == null || total.isUnknown() || total.isIndefinite()) return false;
+        return total.toSeconds() - currentTime.toSeconds() <= seconds;
+    }
+
+    /*
+     *  Moves on to the next track the same way the end of media would, but asks
+     *  loadAndPlayTrack() to keep the current player running and fade across for the
+     *  rest of its duration.
+     */
+    private void startCrossfade(Duration currentTime) {
+        crossfadeLength = mediaPlayer.getTotalDuration().toSeconds() - currentTime.toSeconds();
+        crossfadeRequested = true;
+        advanceAfterEnd();
+        crossfadeRequested = false;     // Nothing was selected (e.g. end of the list)
+    }
+
+    // What happens when a track plays to its end, per loop mode (loop-one replays in place)
+    private void advanceAfterEnd() {
+        markPlayingTrackFinished();
+        switch(currentLoopMode) {
+            case OFF -> TrackService.getInstance().nextTrack();
+            case ALL -> {
+                if (!TrackService.getInstance().nextTrack()) {
+                    TrackService.getInstance().setCurrentTrackIndex(0);
+                }
+            }
+        }
+    }
+
+    private void onQueueChanged() {
+        if (mediaPlayer == null) return;
+        if (!TrackService.getInstance().getPlayQueue().isEmpty()) nextButton.setDisable(false);
+        preloadNextTrack();
+    }
+
+    // Reached the end, or the crossfade into the next track started
+    private void markPlayingTrackFinished() {
+        if (playingTrack == null || playingTrackFinished) return;
+        playingTrackFinished = true;
+        PlayHistory.getInstance().recordCompletion(playingTrack.getId());
+    }
+
+    // Less than half of the track heard before it was replaced counts as a skip
+    private void recordSkipIfCutShort() {
+        if (playingTrack == null || playingTrackFinished || mediaPlayer == null) return;
+
+        Duration total = mediaPlayer.getTotalDuration();
+        if (total == null || total.isUnknown() || total.isIndefinite()) return;
+        if (mediaPlayer.getCurrentTime().lessThan(total.divide(2))) {
+            PlayHistory.getInstance().recordSkip(playingTrack.getId());
+        }
+    }
+
+    private void onTrackReady(Media media, Duration resumeOffset) {
+        Duration total = media.getDuration();
+        trackSlider.setMax(total.toSeconds());
+        totalTimeLabel.setText(formatTime(total));
+
+        // Paused rather than left READY, so the play/pause button picks it up as usual
+        if (resumeOffset != null && mediaPlayer.getMedia() == media) {
+            mediaPlayer.pause();
+            if (total.isUnknown() || resumeOffset.lessThan(total)) mediaPlayer.seek(resumeOffset);
+            trackSlider.setValue(resumeOffset.toSeconds());
+            currentTimeLabel.setText(formatTime(resumeOffset));
+        }
+
+        System.out.println("Equalizer bands info");
+        mediaPlayer.getAudioEqualizer().getBands().forEach(band -> {
+            System.out.printf(
+                        "Center: %.1f Hz, Bandwidth: %.1f Hz, Gain: %.1f dB%n",
+                        band.getCenterFrequency(),
+                        band.getBandwidth(),
+                        band.getGain());
+        });
+
+        switch(currentLoopMode) {
+            case ALL -> {
+                previousButton.setDisable(false);
+                nextButton.setDisable(false);
+            }
+            default -> {
+                if (currentShuffleMode == ShuffleMode.OFF) {
+                    int currIndex = TrackService.getInstance().getCurrentTrackIndex();
+                    if (currIndex == 0) {
+                        delayButtonEnable(previousButton); 
+                    } else if (TrackService.getInstance().peekNextTrack() == null) {
+                        nextButton.setDisable(true);
+                    } else {
+                        previousButton.setDisable(false);
+                        nextButton.setDisable(false);
+                    }
+                } else {
+                    previousButton.setDisable(false);
+                    nextButton.setDisable(false);
+                }
+            }
+        }
+
+        preloadNextTrack();
+    }
+
+    /*
+     *  Prepares the track that follows the current one in a second MediaPlayer. The player is
+     *  never started, but it opens and prerolls the file right away, so by the time the current
+     *  track ends the handoff in loadAndPlayTrack() is just a swap.
+     *  ->  Loop-one replays the current player, so nothing is buffered
+     *  ->  Loop-all wraps to the first track at the end of the list; with shuffle on, the end
+     *      starts a new shuffle whose first pick isn't known yet, so nothing is buffered
+     *  ->  Called again whenever the modes change, replacing a stale candidate
+     */
+    private void preloadNextTrack() {
+        Track nextTrack = null;
+        if (currentLoopMode != LoopMode.ONE) {
+            nextTrack = TrackService.getInstance().peekNextTrack();
+            if (nextTrack == null && currentLoopMode == LoopMode.ALL && currentShuffleMode == ShuffleMode.OFF
+                    && !TrackService.getInstance().getTrackList().isEmpty()) {
+                nextTrack = TrackService.getInstance().getTrackList().get(0);
+            }
+        }
+
+        if (nextTrack != null && nextTrack.equals(preloadedTrack)) return;
+        discardPreloadedPlayer();
+        if (nextTrack == null || !nextTrack.getFile().canRead()) return;
+
+        try {
+            MediaPlayer player = new MediaPlayer(new Media(nextTrack.getFile().toURI().toString()));
+            player.setOnError(() -> {
+                if (player == preloadedPlayer) discardPreloadedPlayer();
+            });
+            preloadedPlayer = player;
+            preloadedTrack = nextTrack;
+        } catch (MediaException e) {
+            System.err.println("[ERROR] Failed to pre-buffer " + nextTrack + ": " + e.getMessage());
+        }
+    }
+
+    // Hands out the pre-buffered player if it holds the given track, and drops it otherwise
+    private MediaPlayer takePreloadedPlayer(Track track) {
+        MediaPlayer player = preloadedPlayer;
+        boolean usable = (player != null && track.equals(preloadedTrack)
+                          && player.getStatus() != MediaPlayer.Status.HALTED);
+        if (!usable) {
+            discardPreloadedPlayer();
+            return null;
+        }
+
+        player.setOnError(null);
+        preloadedPlayer = null;
+        preloadedTrack = null;
+        return player;
+    }
+
+    private void discardPreloadedPlayer() {
+        if (preloadedPlayer != null) {
+            preloadedPlayer.dispose();
+            preloadedPlayer = null;
+        }
+        preloadedTrack = null;
     }
 
     private String formatTime(Duration time) {
@@ -373,30 +606,39 @@ public class PlayerController {
                                     "-fx-background-color: %s; -fx-opacity: 0.3;", 
                                     SettingsService.getInstance().getTheme()));
                 mediaPlayer.setCycleCount(1);
-                mediaPlayer.setOnEndOfMedia(() -> TrackService.getInstance().nextTrack());
+                mediaPlayer.setOnEndOfMedia(this::advanceAfterEnd);
             }
             case ALL -> {
                 loopButton.setStyle(String.format(
                                     "-fx-background-color: %s; -fx-opacity: 1;", 
                                     SettingsService.getInstance().getTheme()));
                 nextButton.setDisable(false);
-                mediaPlayer.setOnEndOfMedia(() -> {
-                    if (!TrackService.getInstance().nextTrack()) {
-                        TrackService.getInstance().setCurrentTrackIndex(0);
-                    }
-                });
+                mediaPlayer.setOnEndOfMedia(this::advanceAfterEnd);
             }
             case ONE -> {
                 loopButton.setText("🔂");
                 mediaPlayer.setCycleCount(1);
                 mediaPlayer.setOnEndOfMedia(() -> {
+                    markPlayingTrackFinished();
                     mediaPlayer.seek(Duration.ZERO);
                     mediaPlayer.play();
+
+                    // Each repetition is a play of its own
+                    playingTrackFinished = false;
+                    TrackService.getInstance().recordPlay(playingTrack.getId());
                 });
             }
         }
     }
 
+    private void updateShuffleButton() {
+        shuffleButton.setText((currentShuffleMode == ShuffleMode.SMART) ? "🔀★" : "🔀");
+        shuffleButton.setStyle(String.format(
+                        "-fx-background-color: %s; -fx-opacity: %s;",
+                        SettingsService.getInstance().getTheme(),
+                        (currentShuffleMode == ShuffleMode.OFF) ? "0.3" : "1"));
+    }
+
     private void updateVolumeIcon(double volume) {
         if (volume == 0) {
             volumeIcon.setText("🔇");
@@ -0,0 +1,104 @@
+package models;
+
+import java.io.File;
+
+
+/*
+ *  Immutable metadata of one library track.
+ *
+ *  The id comes from the library index and stays the same across sessions, so it is what other
+ *  structures (search, shuffle, play history) refer to. Tag fields are empty strings or zero when
+ *  the file doesn't provide them; getTitle() falls back to the file name.
+ */
+public class Track {
+    private final int id;
+    private final File file;
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final int trackNumber;
+    private final long durationMillis;
+    private final int bitrate;
+    private final int rating;
+
+    public Track(int id, File file, String title, String artist, String album,
+                 int trackNumber, long durationMillis, int bitrate, int rating) {
+        this.id = id;
+        this.file = file;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.trackNumber = trackNumber;
+        this.durationMillis = durationMillis;
+        this.bitrate = bitrate;
+        this.rating = rating;
+    }
+
+    // --- Getters ---
+
+    public int getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getTitle() {
+        if (!title.isEmpty()) return title;
+
+        String fileName = file.getName();
+        int extension = fileName.lastIndexOf('.');
+        return (extension > 0) ? fileName.substring(0, extension) : fileName;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public int getTrackNumber() {
+        return trackNumber;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    // In kbit/s, averaged for VBR files
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    // ID3 popularimeter rating, 1 (worst) to 255 (best), 0 when unrated
+    public int getRating() {
+        return rating;
+    }
+
+    // "Artist - Title", or just the title when the artist is unknown
+    public String getDisplayName() {
+        return artist.isEmpty() ? getTitle() : artist + " - " + getTitle();
+    }
+
+
+    // --- Methods ---
+
+    // Tracks are the same track when they come from the same index entry
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof Track track) && track.id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+}
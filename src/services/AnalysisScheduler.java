@@ -0,0 +1,220 @@
+package services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+
+/*
+ *  Shared worker pool for per-track background work (artwork, loudness analysis).
+ *
+ *  ->  A small fixed number of MIN_PRIORITY daemon threads, so analysis never competes with
+ *      playback or the FX thread for more than a share of the cores
+ *  ->  Work waits in a priority queue: the playing track comes first, then the upcoming ones,
+ *      then what's on screen, then the bulk library backlog; equal priorities run in FIFO order
+ *  ->  Tasks are grouped by track file, so a track's queued work can be bumped when it's about
+ *      to play, or cancelled when it leaves the library
+ *  ->  Queue depth and throughput counters are exposed for diagnostics
+ */
+public class AnalysisScheduler {
+    private static final int WORKER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final AnalysisScheduler instance = new AnalysisScheduler();  // After WORKER_COUNT
+
+    public enum Priority { PLAYING, UPCOMING, VISIBLE, BACKGROUND }
+
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor workers;
+    private final Map<String, List<AnalysisTask>> tasksByTrack = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private AnalysisScheduler() {
+        workers = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "analysis-worker");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public static AnalysisScheduler getInstance() {
+        return instance;
+    }
+
+    /*
+     *  Queues work for a track file (the absolute path, as used by the library index). onCancel
+     *  runs instead of the work if the track is cancelled while the work is still queued, so
+     *  callers can release whatever they reserved for it.
+     *  Tasks go through execute() and not submit(), which would wrap them in non-comparable futures.
+     */
+    public void submit(String trackPath, Priority priority, Runnable work, Runnable onCancel) {
+        AnalysisTask task = new AnalysisTask(trackPath, sequence.getAndIncrement(), work, onCancel);
+        tasksByTrack.compute(trackPath, (key, tasks) -> {
+            List<AnalysisTask> trackTasks = (tasks != null) ? tasks : new CopyOnWriteArrayList<>();
+            trackTasks.add(task);
+            return trackTasks;
+        });
+        queuedCount.incrementAndGet();
+        workers.execute(task.enqueue(priority));
+    }
+
+    // Moves a track's queued work up to the given priority (never down)
+    public void prioritize(String trackPath, Priority priority) {
+        List<AnalysisTask> tasks = tasksByTrack.get(trackPath);
+        if (tasks == null) return;
+
+        for (AnalysisTask task : tasks) {
+            QueuedTask requeued = task.requeue(current -> current.compareTo(priority) > 0, priority);
+            if (requeued != null) workers.execute(requeued);
+        }
+    }
+
+    /*
+     *  Moves a track's queued work at the given priority down to BACKGROUND, e.g. the artwork of a
+     *  tile that scrolled away; it keeps its place among the backlog by submission order.
+     */
+    public void demote(String trackPath, Priority priority) {
+        List<AnalysisTask> tasks = tasksByTrack.get(trackPath);
+        if (tasks == null) return;
+
+        for (AnalysisTask task : tasks) {
+            QueuedTask requeued = task.requeue(current -> current == priority, Priority.BACKGROUND);
+            if (requeued != null) workers.execute(requeued);
+        }
+    }
+
+    // Drops a track's queued work; work that already started runs to completion
+    public void cancel(String trackPath) {
+        List<AnalysisTask> tasks = tasksByTrack.remove(trackPath);
+        if (tasks == null) return;
+
+        for (AnalysisTask task : tasks) {
+            if (task.claim(null)) {
+                queuedCount.decrementAndGet();
+                cancelledCount.incrementAndGet();
+                task.onCancel.run();
+            }
+        }
+    }
+
+
+    // --- Getters ---
+
+    // Tasks waiting to run; stale queue entries left by re-prioritizing don't count
+    public int getQueueDepth() {
+        return queuedCount.get();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    // Completed tasks per second of worker time, summed over all workers
+    public double getThroughput() {
+        long nanos = busyNanos.get();
+        return (nanos == 0) ? 0 : completedCount.get() * (double) WORKER_COUNT / (nanos / 1e9);
+    }
+
+
+    // --- Subclasses ---
+
+    /*
+     *  A unit of work for a track. It's in the queue as a QueuedTask; changing its priority queues
+     *  a fresh QueuedTask and leaves the old one behind as stale, which is cheaper than removing it
+     *  from the queue (a linear scan). Only the current entry may claim the task, so it runs once.
+     */
+    private class AnalysisTask {
+        private final String trackPath;
+        private final long sequenceNumber;
+        private final Runnable work;
+        private final Runnable onCancel;
+
+        // Guarded by this
+        private QueuedTask current;     // null once the work started or was cancelled
+
+        AnalysisTask(String trackPath, long sequenceNumber, Runnable work, Runnable onCancel) {
+            this.trackPath = trackPath;
+            this.sequenceNumber = sequenceNumber;
+            this.work = work;
+            this.onCancel = onCancel;
+        }
+
+        synchronized QueuedTask enqueue(Priority priority) {
+            current = new QueuedTask(this, priority);
+            return current;
+        }
+
+        // The new queue entry to execute, or null if the task isn't queued or keeps its priority
+        synchronized QueuedTask requeue(Predicate<Priority> shouldMove, Priority priority) {
+            if (current == null || !shouldMove.test(current.priority)) return null;
+            return enqueue(priority);
+        }
+
+        // Takes the task off the queue; entry is the queue entry taking it, or null to cancel
+        synchronized boolean claim(QueuedTask entry) {
+            if (current == null || (entry != null && entry != current)) return false;
+            current = null;
+            return true;
+        }
+
+        void run() {
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                System.err.println("[ERROR] Analysis of " + trackPath + " failed: " + e.getMessage());
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                completedCount.incrementAndGet();
+                tasksByTrack.computeIfPresent(trackPath, (key, tasks) -> {
+                    tasks.remove(this);
+                    return tasks.isEmpty() ? null : tasks;
+                });
+            }
+        }
+    }
+
+    // Queue entry of a task at a fixed priority; does nothing when taken after being superseded
+    private class QueuedTask implements Runnable, Comparable<QueuedTask> {
+        private final AnalysisTask task;
+        private final Priority priority;
+
+        QueuedTask(AnalysisTask task, Priority priority) {
+            this.task = task;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            if (!task.claim(this)) return;
+
+            queuedCount.decrementAndGet();
+            task.run();
+        }
+
+        @Override
+        public int compareTo(QueuedTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(task.sequenceNumber, other.task.sequenceNumber);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package services;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/*
+ *  Album art thumbnails for the library grid.
+ *
+ *  ->  Art is pulled from the ID3 APIC frame (only the tag region is read) and downscaled to
+ *      THUMBNAIL_SIZE while decoding, on the shared AnalysisScheduler ahead of bulk analysis
+ *  ->  Thumbnails live in an in-heap LRU of soft references bounded by MEMORY_BUDGET_BYTES, so
+ *      the GC can still reclaim them under pressure. Each entry counts with the size it had when
+ *      cached until it's evicted or replaced, whether or not the GC cleared it meanwhile
+ *  ->  Every decoded thumbnail is also written to data/thumbnails as deflated ARGB pixels, which
+ *      is what later sessions load instead of parsing and decoding the MP3 again
+ *  ->  The stored files are bounded by DISK_BUDGET_BYTES: a file's mtime is bumped whenever it's
+ *      read, and once over budget the least recently used files are deleted down to
+ *      DISK_PRUNE_TARGET_BYTES, so pruning runs once per few thousand writes, not on each one
+ *  ->  Tracks without art are remembered as well, both in memory and on disk
+ */
+public class ArtworkService {
+    private static final Path THUMBNAIL_DIR = Paths.get("data", "thumbnails");
+    private static final int THUMBNAIL_SIZE = 120;
+    private static final long MEMORY_BUDGET_BYTES = 32L * 1024 * 1024;
+    private static final long DISK_BUDGET_BYTES = 256L * 1024 * 1024;
+    private static final long DISK_PRUNE_TARGET_BYTES = DISK_BUDGET_BYTES / 10 * 9;
+    private static final int THUMBNAIL_MAGIC = 0x4A425448;  // "JBTH"
+
+    // Placeholder for "this track has no artwork", never handed out to callers
+    private static final Image NO_ARTWORK = new WritableImage(1, 1);
+    private static final ArtworkService instance = new ArtworkService();     // After the constants above
+
+    private final Map<String, CachedThumbnail> memoryCache = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, List<Consumer<Image>>> pendingRequests = new HashMap<>();
+    private long memoryCacheBytes = 0;
+
+    private final Object diskLock = new Object();
+    private long diskCacheBytes = -1;   // Guarded by diskLock; -1 until data/thumbnails is measured
+
+    private ArtworkService() {}
+
+    public static ArtworkService getInstance() {
+        return instance;
+    }
+
+    /*
+     *  Must be called on the FX thread. The callback runs on the FX thread as well, immediately
+     *  when the thumbnail is in memory, and is not called at all for tracks without artwork.
+     */
+    public void requestThumbnail(File track, Consumer<Image> callback) {
+        String key = track.getAbsolutePath();
+
+        CachedThumbnail cached = memoryCache.get(key);
+        Image image = (cached != null) ? cached.image.get() : null;
+        if (image != null) {
+            if (image != NO_ARTWORK) callback.accept(image);
+            return;
+        }
+
+        // Coalesce tiles asking for the same track while it's loading
+        List<Consumer<Image>> waiting = pendingRequests.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            AnalysisScheduler.getInstance().prioritize(key, AnalysisScheduler.Priority.VISIBLE);    // May have been demoted
+            return;
+        }
+        waiting = new ArrayList<>(1);
+        waiting.add(callback);
+        pendingRequests.put(key, waiting);
+
+        AnalysisScheduler.getInstance().submit(key, AnalysisScheduler.Priority.VISIBLE, () -> {
+            Image loaded = loadThumbnail(track);
+            Platform.runLater(() -> deliver(key, loaded));
+        }, () -> Platform.runLater(() -> pendingRequests.remove(key)));
+    }
+
+    /*
+     *  Must be called on the FX thread, when a tile is rebound before its thumbnail arrived. The
+     *  callback won't be called, and if no other tile waits for the track, its load is demoted
+     *  behind the tiles now on screen. It still runs eventually and fills the caches.
+     */
+    public void cancelRequest(File track, Consumer<Image> callback) {
+        String key = track.getAbsolutePath();
+        List<Consumer<Image>> waiting = pendingRequests.get(key);
+        if (waiting == null || !waiting.remove(callback) || !waiting.isEmpty()) return;
+
+        AnalysisScheduler.getInstance().demote(key, AnalysisScheduler.Priority.VISIBLE);
+    }
+
+    // Drops the cached thumbnail of a track whose file changed
+    public void invalidate(File track) {
+        String key = track.getAbsolutePath();
+        Platform.runLater(() -> removeFromMemory(key));
+        try {
+            Path path = thumbnailPath(key);
+            long bytes = Files.exists(path) ? Files.size(path) : 0;
+            if (Files.deleteIfExists(path)) accountStored(-bytes);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to drop thumbnail of " + key + ": " + e.getMessage());
+        }
+    }
+
+    private void deliver(String key, Image image) {
+        putInMemory(key, image);
+
+        List<Consumer<Image>> waiting = pendingRequests.remove(key);
+        if (waiting == null || image == NO_ARTWORK) return;
+        for (Consumer<Image> callback : waiting) {
+            callback.accept(image);
+        }
+    }
+
+
+    // --- Memory cache (FX thread only) ---
+
+    private void putInMemory(String key, Image image) {
+        removeFromMemory(key);
+        CachedThumbnail cached = new CachedThumbnail(image);
+        memoryCache.put(key, cached);
+        memoryCacheBytes += cached.bytes;
+
+        // Evict least recently used thumbnails until we're back within budget
+        Iterator<CachedThumbnail> iterator = memoryCache.values().iterator();
+        while (memoryCacheBytes > MEMORY_BUDGET_BYTES && iterator.hasNext()) {
+            memoryCacheBytes -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    private void removeFromMemory(String key) {
+        CachedThumbnail previous = memoryCache.remove(key);
+        if (previous != null) {
+            memoryCacheBytes -= previous.bytes;
+        }
+    }
+
+
+    // --- Loading (background threads) ---
+
+    private Image loadThumbnail(File track) {
+        String key = track.getAbsolutePath();
+        long modified = track.lastModified();
+        long size = track.length();
+
+        Image stored = readStoredThumbnail(key, modified, size);
+        if (stored != null) return stored;
+
+        Image thumbnail = NO_ARTWORK;
+        try {
+            byte[] artwork = Id3Reader.readArtwork(track.toPath());
+            if (artwork != null) {
+                Image decoded = new Image(new ByteArrayInputStream(artwork), THUMBNAIL_SIZE, THUMBNAIL_SIZE, false, true);
+                if (!decoded.isError() && decoded.getPixelReader() != null) {
+                    thumbnail = decoded;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read artwork of " + key + ": " + e.getMessage());
+            return NO_ARTWORK;  // Don't persist; the file may just be locked right now
+        }
+
+        writeStoredThumbnail(key, modified, size, thumbnail);
+        return thumbnail;
+    }
+
+    /*
+     *  Stored thumbnail layout (big-endian):
+     *      int magic, long modified, long size, int width, int height, int dataLength, byte[dataLength]
+     *  where data is the deflated int ARGB pixel array. width = height = 0 means "no artwork".
+     */
+    private Image readStoredThumbnail(String key, long modified, long size) {
+        Path path = thumbnailPath(key);
+        if (!Files.exists(path)) return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            Id3Reader.readFully(channel, buffer, 0);
+            buffer.flip();
+
+            if (buffer.getInt() != THUMBNAIL_MAGIC || buffer.getLong() != modified || buffer.getLong() != size) {
+                return null;    // Stale; the track was modified since
+            }
+
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            markUsed(path);
+            if (width == 0 || height == 0) return NO_ARTWORK;
+
+            byte[] compressed = new byte[buffer.getInt()];
+            buffer.get(compressed);
+
+            Inflater inflater = new Inflater();
+            inflater.setInput(compressed);
+            ByteBuffer pixels = ByteBuffer.allocate(width * height * 4);
+            inflater.inflate(pixels);
+            inflater.end();
+            pixels.flip();
+
+            IntBuffer argb = pixels.asIntBuffer();
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, width);
+            return image;
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void writeStoredThumbnail(String key, long modified, long size, Image thumbnail) {
+        int width = (thumbnail == NO_ARTWORK) ? 0 : (int) thumbnail.getWidth();
+        int height = (thumbnail == NO_ARTWORK) ? 0 : (int) thumbnail.getHeight();
+
+        byte[] compressed = new byte[0];
+        int compressedLength = 0;
+        if (width > 0 && height > 0) {
+            ByteBuffer pixels = ByteBuffer.allocate(width * height * 4);
+            thumbnail.getPixelReader().getPixels(0, 0, width, height,
+                                                 PixelFormat.getIntArgbInstance(), pixels.asIntBuffer(), width);
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(pixels);
+            deflater.finish();
+            compressed = new byte[width * height * 4 + 64];
+            compressedLength = deflater.deflate(compressed);
+            deflater.end();
+        }
+
+        Path path = thumbnailPath(key);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(THUMBNAIL_DIR);
+            try (FileChannel channel = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(32 + compressedLength);
+                buffer.putInt(THUMBNAIL_MAGIC)
+                      .putLong(modified)
+                      .putLong(size)
+                      .putInt(width)
+                      .putInt(height)
+                      .putInt(compressedLength)
+                      .put(compressed, 0, compressedLength);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            long replacedBytes = Files.exists(path) ? Files.size(path) : 0;
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            accountStored(32 + compressedLength - replacedBytes);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to store thumbnail of " + key + ": " + e.getMessage());
+        }
+    }
+
+    // 64-bit FNV-1a of the track path, so file names stay short and filesystem-safe
+    private Path thumbnailPath(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return THUMBNAIL_DIR.resolve(Long.toHexString(hash) + ".thumb");
+    }
+
+
+    // --- Disk budget (background threads) ---
+
+    // The mtime of a stored file is its last use; the track's own mtime is in the file header
+    private void markUsed(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only makes the file look older to pruning
+        }
+    }
+
+    // Records stored files growing or shrinking by deltaBytes, and prunes when over budget
+    private void accountStored(long deltaBytes) {
+        synchronized (diskLock) {
+            if (diskCacheBytes < 0) {
+                diskCacheBytes = 0;     // The first measure already includes this change
+                for (StoredThumbnail stored : listStoredThumbnails()) {
+                    diskCacheBytes += stored.bytes;
+                }
+            } else {
+                diskCacheBytes += deltaBytes;
+            }
+
+            if (diskCacheBytes > DISK_BUDGET_BYTES) pruneStoredThumbnails();
+        }
+    }
+
+    // Deletes the least recently used files down to DISK_PRUNE_TARGET_BYTES; caller holds diskLock
+    private void pruneStoredThumbnails() {
+        List<StoredThumbnail> stored = listStoredThumbnails();
+        stored.sort(Comparator.comparingLong(thumbnail -> thumbnail.lastUsed));
+
+        long bytes = 0;
+        for (StoredThumbnail thumbnail : stored) {
+            bytes += thumbnail.bytes;
+        }
+
+        int deleted = 0;
+        for (StoredThumbnail thumbnail : stored) {
+            if (bytes <= DISK_PRUNE_TARGET_BYTES) break;
+            try {
+                Files.deleteIfExists(thumbnail.path);
+                bytes -= thumbnail.bytes;
+                deleted++;
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to prune thumbnail " + thumbnail.path + ": " + e.getMessage());
+            }
+        }
+        diskCacheBytes = bytes;
+        System.out.println("[INFO] Pruned " + deleted + " stored thumbnail(s), " + (bytes >> 20) + " MB left.");
+    }
+
+    private List<StoredThumbnail> listStoredThumbnails() {
+        List<StoredThumbnail> stored = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(THUMBNAIL_DIR, "*.thumb")) {
+            for (Path path : files) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    stored.add(new StoredThumbnail(path, attributes.lastModifiedTime().toMillis(), attributes.size()));
+                } catch (IOException e) {
+                    // Deleted meanwhile
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to list stored thumbnails: " + e.getMessage());
+        }
+        return stored;
+    }
+
+
+    // --- Subclasses ---
+
+    // The size is kept next to the reference, as it can't be read back once the GC cleared it
+    private static class CachedThumbnail {
+        final SoftReference<Image> image;
+        final long bytes;
+
+        CachedThumbnail(Image image) {
+            this.image = new SoftReference<>(image);
+            this.bytes = (long) image.getWidth() * (long) image.getHeight() * 4;
+        }
+    }
+
+    private static class StoredThumbnail {
+        final Path path;
+        final long lastUsed;
+        final long bytes;
+
+        StoredThumbnail(Path path, long lastUsed, long bytes) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package services;
+
+import javafx.scene.media.MediaPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/*
+ *  Long-lived owner of the audio effect settings (equalizer bands, normalizer switch, volume).
+ *
+ *  The settings listeners are registered once, here, and forwarded to whichever MediaPlayers
+ *  are attached at the moment: normally one, two while a crossfade overlaps them. Players come
+ *  and go with attach()/detach(), so the listener count stays constant no matter how many
+ *  tracks a session plays, and detached players are not kept reachable from the settings.
+ *
+ *  FX thread only.
+ */
+public class AudioChain {
+    private static final AudioChain instance = new AudioChain();
+
+    private final List<ChainLink> links = new ArrayList<>(2);
+    private double baseVolume = 1.0;
+
+    private AudioChain() {
+        SettingsService settings = SettingsService.getInstance();
+        for (int i = 0; i < 10; i++) {
+            final int bandIndex = i;
+            settings.gainProperty(bandIndex).addListener((obs, oldVal, newVal) -> {
+                if (newVal == null || (oldVal != null && newVal.doubleValue() == oldVal.doubleValue())) return;
+                for (ChainLink link : links) {
+                    link.equalizer.setBandGain(bandIndex, newVal);
+                }
+            });
+        }
+
+        settings.normalizerStatusProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal == null) return;
+            for (ChainLink link : links) {
+                link.normalizer.setEnabled(newVal);
+            }
+        });
+    }
+
+    public static AudioChain getInstance() {
+        return instance;
+    }
+
+    // Puts a player under the current settings; the returned normalizer takes its gains and fades
+    public LoudnessNormalizer attach(MediaPlayer player) {
+        Equalizer equalizer = new Equalizer(player);
+        for (int i = 0; i < 10; i++) {
+            equalizer.setBandGain(i, SettingsService.getInstance().getGainValue(i));
+        }
+
+        player.setVolume(baseVolume);
+        LoudnessNormalizer normalizer = new LoudnessNormalizer(player);
+        links.add(new ChainLink(player, equalizer, normalizer));
+        return normalizer;
+    }
+
+    // Must be called before the player is disposed
+    public void detach(MediaPlayer player) {
+        links.removeIf(link -> link.player == player);
+    }
+
+    // Volume slider position (0 to 1), for every attached player
+    public void setBaseVolume(double volume) {
+        baseVolume = volume;
+        for (ChainLink link : links) {
+            link.normalizer.setBaseVolume(volume);
+        }
+    }
+
+
+    // --- Subclasses ---
+
+    private static class ChainLink {
+        private final MediaPlayer player;
+        private final Equalizer equalizer;
+        private final LoudnessNormalizer normalizer;
+
+        ChainLink(MediaPlayer player, Equalizer equalizer, LoudnessNormalizer normalizer) {
+            this.player = player;
+            this.equalizer = equalizer;
+            this.normalizer = normalizer;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package services;
+
+import javafx.application.Platform;
+import javafx.scene.media.MediaPlayer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/*
+ *  Fades one MediaPlayer out while the next one fades in.
+ *
+ *  ->  A single scheduled ticker thread drives every fade; each tick posts the same Runnable to
+ *      the FX thread, and a tick is skipped while the previous step is still queued
+ *  ->  Gains follow an equal-power curve (cos/sin), so the overall loudness doesn't dip midway
+ *  ->  Gains go through LoudnessNormalizer.setFadeGain(), on top of the base volume and the
+ *      normalizer's own adjustments
+ *  ->  Steps only compute two doubles and set two volumes; nothing is allocated per step
+ *
+ *  Must be used from the FX thread.
+ */
+public class CrossfadeEngine {
+    private static final long TICK_MILLIS = 40;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "crossfade-ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean stepQueued = new AtomicBoolean(false);
+    private final Runnable step = this::step;
+    private final Runnable tick = () -> {
+        if (stepQueued.compareAndSet(false, true)) Platform.runLater(step);
+    };
+
+    private ScheduledFuture<?> tickTask;
+    private MediaPlayer outgoingPlayer;
+    private LoudnessNormalizer outgoing;
+    private LoudnessNormalizer incoming;
+    private long startNanos;
+    private long lengthNanos;
+
+    /*
+     *  Starts fading from the outgoing to the incoming player over the given number of seconds.
+     *  The incoming player should already be playing; the outgoing one is stopped and disposed
+     *  once the fade completes. A fade still in progress is completed first.
+     */
+    public void start(MediaPlayer outgoingPlayer, LoudnessNormalizer outgoing,
+                      LoudnessNormalizer incoming, double seconds) {
+        finish();
+
+        this.outgoingPlayer = outgoingPlayer;
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+        startNanos = System.nanoTime();
+        lengthNanos = Math.max(1, (long) (seconds * 1_000_000_000L));
+
+        outgoing.setFadeGain(1.0);
+        incoming.setFadeGain(0.0);
+        tickTask = ticker.scheduleAtFixedRate(tick, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Jumps to the end of the current fade, if any
+    public void finish() {
+        if (tickTask == null) return;
+
+        tickTask.cancel(false);
+        tickTask = null;
+
+        incoming.setFadeGain(1.0);
+        AudioChain.getInstance().detach(outgoingPlayer);
+        outgoingPlayer.stop();
+        outgoingPlayer.dispose();
+
+        outgoingPlayer = null;
+        outgoing = null;
+        incoming = null;
+    }
+
+    public boolean isFading() {
+        return tickTask != null;
+    }
+
+    private void step() {
+        stepQueued.set(false);
+        if (tickTask == null) return;   // Finished while this step was queued
+
+        double progress = (double) (System.nanoTime() - startNanos) / lengthNanos;
+        if (progress >= 1.0) {
+            finish();
+            return;
+        }
+
+        double angle = progress * Math.PI / 2;
+        outgoing.setFadeGain(Math.cos(angle));
+        incoming.setFadeGain(Math.sin(angle));
+    }
+}
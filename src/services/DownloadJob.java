@@ -0,0 +1,212 @@
+package services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+
+
+/*
+ *  One download handed to the DownloadManager: a downloader command, what to send it on stdin,
+ *  and what became of it.
+ *
+ *  ->  QUEUED until a slot frees up, RUNNING while the process lives, then DONE (exit code 0),
+ *      FAILED or CANCELLED
+ *  ->  The process output is read line by line as it comes and the last OUTPUT_LINES lines are
+ *      kept, so a chatty downloader can't grow memory without bound
+ *  ->  Progress lines (yt-dlp, ffmpeg) are parsed as they arrive. State and progress are
+ *      published to the UI through ThrottledProperty, at most UPDATES_PER_SECOND times a second
+ *      however fast the downloader prints
+ *
+ *  Thread-safe; the manager's worker thread writes, anyone may read.
+ */
+public class DownloadJob {
+    public enum Kind { SONG, PLAYLIST }
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private static final int OUTPUT_LINES = 200;
+    private static final int UPDATES_PER_SECOND = 4;
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final int id = nextId.getAndIncrement();
+    private final Kind kind;
+    private final String url;               // Null when the downloader resumes on its own
+    private final List<String> command;
+    private final String input;             // Sent on stdin, or null
+    private final ProgressParser progressParser = new ProgressParser();    // Worker thread only
+    private final ThrottledProperty<State> stateUpdates;
+    private final ThrottledProperty<DownloadProgress> progressUpdates;
+    private final CountDownLatch finishedLatch = new CountDownLatch(1);
+    private volatile Consumer<String> lineListener;     // Sees every output line, on the worker thread
+
+    // Guarded by this
+    private State state = State.QUEUED;
+    private final ArrayDeque<String> output = new ArrayDeque<>();
+    private Process process;
+    private Runnable onFinished;            // Run once, when the job is finished and its process gone
+
+    // Updates are published through the given executor, e.g. Platform::runLater
+    DownloadJob(Kind kind, String url, List<String> command, String input, Executor updates) {
+        this.kind = kind;
+        this.url = url;
+        this.command = List.copyOf(command);
+        this.input = input;
+        this.stateUpdates = new ThrottledProperty<>(State.QUEUED, 1000 / UPDATES_PER_SECOND, updates);
+        this.progressUpdates = new ThrottledProperty<>(DownloadProgress.NONE, 1000 / UPDATES_PER_SECOND, updates);
+    }
+
+
+    // --- Getters ---
+
+    public int getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // The most recent output lines, oldest first
+    public synchronized List<String> getOutput() {
+        return new ArrayList<>(output);
+    }
+
+    List<String> getCommand() {
+        return command;
+    }
+
+    String getInput() {
+        return input;
+    }
+
+
+    // --- Properties ---
+
+    // Changes on the update executor only
+    public ReadOnlyObjectProperty<State> stateProperty() {
+        return stateUpdates.getReadOnlyProperty();
+    }
+
+    public ReadOnlyObjectProperty<DownloadProgress> progressProperty() {
+        return progressUpdates.getReadOnlyProperty();
+    }
+
+
+    // --- Methods ---
+
+    /*
+     *  Stops the job: a queued job never starts, a running one has its process destroyed along
+     *  with the processes it started (yt-dlp, ffmpeg). Returns false when the job had already
+     *  finished.
+     */
+    public boolean cancel() {
+        Process running;
+        synchronized (this) {
+            if (state.isFinished()) return false;
+            state = State.CANCELLED;
+            running = process;
+            stateUpdates.set(state);
+        }
+
+        if (running != null) {
+            running.descendants().forEach(ProcessHandle::destroy);
+            running.destroy();
+        } else {
+            finished();     // Never started, so the worker won't report back
+        }
+        return true;
+    }
+
+    synchronized void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    // For output that must be read in full, beyond the OUTPUT_LINES kept; set before submitting
+    void setLineListener(Consumer<String> lineListener) {
+        this.lineListener = lineListener;
+    }
+
+    // Blocks until the job is done, failed or cancelled
+    void awaitFinished() throws InterruptedException {
+        finishedLatch.await();
+    }
+
+    // Called by the worker once the process started; false means the job was cancelled first
+    synchronized boolean attach(Process process) {
+        if (state != State.QUEUED) return false;
+        this.process = process;
+        state = State.RUNNING;
+        stateUpdates.set(state);
+        return true;
+    }
+
+    void appendOutput(String line) {
+        synchronized (this) {
+            if (output.size() == OUTPUT_LINES) output.removeFirst();
+            output.addLast(line);
+        }
+
+        DownloadProgress progress = progressParser.parse(line);
+        if (progress != null) progressUpdates.set(progress);
+
+        Consumer<String> listener = lineListener;
+        if (listener != null) listener.accept(line);
+    }
+
+    // A cancelled job stays cancelled whatever the process exited with
+    void finish(int exitCode) {
+        synchronized (this) {
+            process = null;
+            if (state != State.CANCELLED) state = (exitCode == 0) ? State.DONE : State.FAILED;
+            if (state == State.DONE) progressUpdates.set(new DownloadProgress("Done", 100, Double.NaN, Double.NaN, -1));
+            stateUpdates.set(state);
+        }
+        finished();
+    }
+
+    void fail(String reason) {
+        appendOutput(reason);
+        synchronized (this) {
+            process = null;
+            if (state != State.CANCELLED) state = State.FAILED;
+            stateUpdates.set(state);
+        }
+        finished();
+    }
+
+    // Outside the lock, so the action may call back into the job
+    private void finished() {
+        Runnable action;
+        synchronized (this) {
+            action = onFinished;
+            onFinished = null;
+        }
+        if (action != null) action.run();
+        finishedLatch.countDown();
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " " + kind + ((url != null) ? " " + url : "");
+    }
+}
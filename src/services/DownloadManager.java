@@ -0,0 +1,174 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntSupplier;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+
+
+/*
+ *  Runs DownloadJobs, at most maxConcurrent at a time.
+ *
+ *  ->  Jobs wait in a FIFO queue; whenever one is submitted or one finishes, queued jobs are
+ *      started until the limit is reached again. The limit is read each time, so a changed
+ *      setting applies from the next start on
+ *  ->  Each running job gets a virtual thread that starts the process, feeds it its input and
+ *      reads its output line by line until it exits
+ *  ->  The last MAX_FINISHED_JOBS finished jobs are kept for display; older ones are dropped.
+ *      jobsProperty() publishes the kept list through the update executor
+ */
+class DownloadManager {
+    private static final int MAX_FINISHED_JOBS = 50;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final IntSupplier maxConcurrent;
+    private final Executor updates;
+    private final ThrottledProperty<List<DownloadJob>> jobsUpdates;
+
+    // Guarded by this
+    private final ArrayDeque<DownloadJob> queued = new ArrayDeque<>();
+    private final List<DownloadJob> jobs = new ArrayList<>();     // Every kept job, oldest first
+    private int running = 0;
+
+    // Job and job list updates are published through the given executor, e.g. Platform::runLater
+    DownloadManager(IntSupplier maxConcurrent, Executor updates) {
+        this.maxConcurrent = maxConcurrent;
+        this.updates = updates;
+        this.jobsUpdates = new ThrottledProperty<>(List.of(), 250, updates);
+    }
+
+    DownloadJob submit(DownloadJob.Kind kind, String url, List<String> command, String input) {
+        return submit(kind, url, command, input, null);
+    }
+
+    // onFinished runs once the job is done, failed or cancelled, on whichever thread got it there
+    DownloadJob submit(DownloadJob.Kind kind, String url, List<String> command, String input, Runnable onFinished) {
+        DownloadJob job = newJob(kind, url, command, input);
+        job.setOnFinished(onFinished);
+        return submit(job);
+    }
+
+    // A job to set up further (listeners) before it's submitted
+    DownloadJob newJob(DownloadJob.Kind kind, String url, List<String> command, String input) {
+        return new DownloadJob(kind, url, command, input, updates);
+    }
+
+    DownloadJob submit(DownloadJob job) {
+        synchronized (this) {
+            queued.addLast(job);
+            jobs.add(job);
+            pruneFinishedJobs();
+            jobsUpdates.set(List.copyOf(jobs));
+        }
+        dispatch();
+        return job;
+    }
+
+    // Changes on the update executor only
+    ReadOnlyObjectProperty<List<DownloadJob>> jobsProperty() {
+        return jobsUpdates.getReadOnlyProperty();
+    }
+
+    // Jobs submitted so far, oldest first, including recently finished ones
+    synchronized List<DownloadJob> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+
+    // --- Workers ---
+
+    private void dispatch() {
+        synchronized (this) {
+            while (running < Math.max(1, maxConcurrent.getAsInt()) && !queued.isEmpty()) {
+                DownloadJob job = queued.removeFirst();
+                if (job.getState() != DownloadJob.State.QUEUED) continue;     // Cancelled while waiting
+
+                running++;
+                executor.execute(() -> run(job));
+            }
+        }
+    }
+
+    private void run(DownloadJob job) {
+        try {
+            ProcessBuilder builder = new ProcessBuilder(job.getCommand());
+            builder.redirectErrorStream(true);      // Merge stdout and stderr
+
+            Process process = builder.start();
+            if (!job.attach(process)) {
+                process.destroy();
+                return;
+            }
+            System.out.println("[INFO] Download " + job + " started.");
+
+            // Closing stdin also tells the downloader there's nothing more to read
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
+                if (job.getInput() != null) {
+                    writer.write(job.getInput());
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                // The process exited before reading; its output tells why
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    job.appendOutput(line);
+                }
+            }
+
+            job.finish(process.waitFor());
+            switch (job.getState()) {
+                case DONE -> System.out.println("[INFO] Download " + job + " finished.");
+                case FAILED -> System.err.println("[ERROR] Download " + job + " failed:\n"
+                                                  + String.join("\n", job.getOutput()));
+                default -> System.out.println("[INFO] Download " + job + " was cancelled.");
+            }
+        } catch (IOException e) {
+            if (job.getState() == DownloadJob.State.CANCELLED) {
+                // Destroying the process closed its output under the reader
+                job.finish(-1);
+                System.out.println("[INFO] Download " + job + " was cancelled.");
+                return;
+            }
+            job.fail("Unable to launch the downloader: " + e.getMessage());
+            System.err.println("[ERROR] Unable to launch the downloader for " + job + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail("Download interrupted.");
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+        }
+    }
+
+    // Caller holds the lock
+    private void pruneFinishedJobs() {
+        int finished = 0;
+        for (DownloadJob job : jobs) {
+            if (job.getState().isFinished()) finished++;
+        }
+
+        Iterator<DownloadJob> iterator = jobs.iterator();
+        while (finished > MAX_FINISHED_JOBS && iterator.hasNext()) {
+            if (iterator.next().getState().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+}
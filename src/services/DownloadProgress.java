@@ -0,0 +1,78 @@
+package services;
+
+import java.util.Locale;
+
+
+/*
+ *  Where a running download stands, as parsed from the downloader's output.
+ *  Fields the downloader didn't report are NaN (numbers) or -1 (ETA).
+ */
+public class DownloadProgress {
+    public static final DownloadProgress NONE = new DownloadProgress("Waiting", Double.NaN, Double.NaN, Double.NaN, -1);
+
+    private final String phase;             // "Downloading", "Converting"...
+    private final double percent;           // 0 to 100
+    private final double bytesPerSecond;    // Download speed
+    private final double speedFactor;       // Conversion speed, in multiples of realtime
+    private final long etaSeconds;
+
+    DownloadProgress(String phase, double percent, double bytesPerSecond, double speedFactor, long etaSeconds) {
+        this.phase = phase;
+        this.percent = percent;
+        this.bytesPerSecond = bytesPerSecond;
+        this.speedFactor = speedFactor;
+        this.etaSeconds = etaSeconds;
+    }
+
+
+    // --- Getters ---
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    // Fraction for a ProgressBar: 0 to 1, or -1 (indeterminate) when unknown
+    public double getFraction() {
+        return Double.isNaN(percent) ? -1 : Math.max(0, Math.min(1, percent / 100));
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public double getSpeedFactor() {
+        return speedFactor;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+
+    // --- Methods ---
+
+    // e.g. "Downloading 42.3% at 1.2 MB/s, 0:04 left"
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(phase);
+        if (!Double.isNaN(percent)) text.append(String.format(Locale.ROOT, " %.1f%%", percent));
+        if (!Double.isNaN(bytesPerSecond)) text.append(" at ").append(formatRate(bytesPerSecond));
+        else if (!Double.isNaN(speedFactor)) text.append(String.format(Locale.ROOT, " at %.1fx", speedFactor));
+        if (etaSeconds >= 3600) {
+            text.append(String.format(Locale.ROOT, ", %d:%02d:%02d left", etaSeconds / 3600, etaSeconds / 60 % 60, etaSeconds % 60));
+        } else if (etaSeconds >= 0) {
+            text.append(String.format(Locale.ROOT, ", %d:%02d left", etaSeconds / 60, etaSeconds % 60));
+        }
+        return text.toString();
+    }
+
+    private static String formatRate(double bytesPerSecond) {
+        if (bytesPerSecond >= 1024 * 1024) return String.format(Locale.ROOT, "%.1f MB/s", bytesPerSecond / (1024 * 1024));
+        if (bytesPerSecond >= 1024) return String.format(Locale.ROOT, "%.0f KB/s", bytesPerSecond / 1024);
+        return String.format(Locale.ROOT, "%.0f B/s", bytesPerSecond);
+    }
+}
@@ -0,0 +1,175 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+/*
+ *  Videos of a playlist download still to fetch, kept as an append-only journal.
+ *
+ *  One record per line after a header line:
+ *      E <url>     enqueued
+ *      C <url>     completed
+ *  Replaying the lines in order gives the pending videos, in the order they were enqueued.
+ *
+ *  ->  Finishing a video appends one short line and forces it to disk, so progress costs O(1)
+ *      I/O per video however long the playlist, and a crash loses at most the video in flight
+ *  ->  A last line cut off by a crash (no newline) is ignored on replay
+ *  ->  Once completions outnumber pending videos, the journal is rewritten with just the
+ *      pending ones (temp file and atomic move), so it never grows much past the playlist size
+ *
+ *  Thread-safe.
+ */
+class DownloadQueueJournal {
+    private static final String HEADER = "JBDQ 1";
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    private final Path path;
+
+    // Guarded by this
+    private final LinkedHashSet<String> pending = new LinkedHashSet<>();
+    private FileChannel journal;
+    private int completedRecords = 0;
+
+    DownloadQueueJournal(Path path) {
+        this.path = path;
+        replay();
+    }
+
+
+    // --- Getters ---
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    // Pending videos in enqueue order
+    synchronized List<String> getPending() {
+        return new ArrayList<>(pending);
+    }
+
+
+    // --- Methods ---
+
+    // Adds videos not already pending, as one write
+    synchronized void enqueueAll(List<String> urls) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (String url : urls) {
+            if (pending.add(url)) records.append("E ").append(url).append('\n');
+        }
+        append(records.toString());
+    }
+
+    synchronized void complete(String url) throws IOException {
+        if (!pending.remove(url)) return;
+
+        append("C " + url + "\n");
+        completedRecords++;
+        if (completedRecords >= COMPACT_MIN_RECORDS && completedRecords > pending.size()) compact();
+    }
+
+    // Moves a pending video to the back of the queue, e.g. to retry it after the others
+    synchronized void requeue(String url) throws IOException {
+        if (!pending.remove(url)) return;
+
+        pending.add(url);
+        append("C " + url + "\nE " + url + "\n");
+        completedRecords++;
+        if (completedRecords >= COMPACT_MIN_RECORDS && completedRecords > pending.size()) compact();
+    }
+
+    // Forgets every pending video, e.g. when the download is cancelled
+    synchronized void clear() throws IOException {
+        pending.clear();
+        compact();
+    }
+
+
+    // --- Journal file ---
+
+    // Caller holds the lock
+    private void append(String records) throws IOException {
+        if (records.isEmpty()) return;
+        if (journal == null) compact();     // Creates the file with its header
+
+        ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    // Rewrites the journal with only the pending videos; caller holds the lock
+    private void compact() throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        StringBuilder content = new StringBuilder(HEADER).append('\n');
+        for (String url : pending) {
+            content.append("E ").append(url).append('\n');
+        }
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+
+        if (journal != null) journal.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        completedRecords = 0;
+    }
+
+    private synchronized void replay() {
+        if (!Files.exists(path)) return;
+
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String content = reader.readLine();
+            if (!HEADER.equals(content)) {
+                System.err.println("[ERROR] " + path + " isn't a download queue journal; starting with an empty queue.");
+                return;
+            }
+
+            // Lines are read by hand so that a last line without its newline can be told apart
+            StringBuilder line = new StringBuilder();
+            int next;
+            while ((next = reader.read()) != -1) {
+                if (next != '\n') {
+                    line.append((char) next);
+                    continue;
+                }
+                if (line.length() > 2 && line.charAt(1) == ' ') {
+                    String url = line.substring(2);
+                    switch (line.charAt(0)) {
+                        case 'E' -> pending.add(url);
+                        case 'C' -> pending.remove(url);
+                        default -> { }
+                    }
+                    records++;
+                }
+                line.setLength(0);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read download queue journal: " + e.getMessage());
+        }
+
+        System.out.println("[INFO] Download queue journal replayed: " + records + " record(s), "
+                           + pending.size() + " video(s) pending.");
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to compact download queue journal: " + e.getMessage());
+        }
+    }
+}
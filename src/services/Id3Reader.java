@@ -0,0 +1,451 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+
+/*
+ *  Minimal streaming ID3 reader.
+ *
+ *  The ID3v2 tag is walked frame header by frame header with positional reads: its first
+ *  TAG_HEAD_SIZE bytes are read once, which usually holds all the text frames, and only the
+ *  bodies of the frames asked for are read beyond that. Cover art and other large frames are
+ *  skipped without being read unless asked for. readTags() adds a few KB after the tag and the
+ *  ID3v1 trailer, never the whole audio data. Supports ID3v2.2, v2.3 and v2.4 including tag-level
+ *  and frame-level unsynchronisation; compressed or encrypted frames are skipped.
+ */
+public final class Id3Reader {
+    private static final int HEADER_SIZE = 10;
+    private static final int MAX_TAG_SIZE = 16 * 1024 * 1024;
+    private static final int TAG_HEAD_SIZE = 4096;
+    private static final int MAX_TEXT_FRAME_SIZE = 4096;
+    private static final Set<String> TAG_FRAMES = Set.of(
+        "TIT2", "TPE1", "TALB", "TRCK", "TLEN", "POPM",
+        "TT2", "TP1", "TAL", "TRK", "TLE", "POP");
+    private static final int FRONT_COVER = 3;
+    private static final int AUDIO_PROBE_SIZE = 4096;
+
+    private static final int[] MPEG1_BITRATES = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0 };
+    private static final int[] MPEG2_BITRATES = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0 };
+    private static final int[] SAMPLE_RATES = { 44100, 48000, 32000, 0 };
+
+    private Id3Reader() {}
+
+    // Plain holder filled in by readTags(); empty strings and zeros mean "unknown"
+    public static class TrackTags {
+        String title = "";
+        String artist = "";
+        String album = "";
+        int trackNumber = 0;
+        long durationMillis = 0;
+        int bitrate = 0;
+        int rating = 0;     // POPM rating, 1 (worst) to 255 (best), 0 when unrated
+    }
+
+    interface FrameFilter {
+        // Whether to read a frame's body; the others are skipped without reading them
+        boolean wants(String id, int size);
+    }
+
+    interface FrameVisitor {
+        // Return false to stop iterating
+        boolean visit(String id, ByteBuffer data);
+    }
+
+    // Returns the embedded picture bytes (front cover preferred), or null if there is none
+    public static byte[] readArtwork(Path path) throws IOException {
+        byte[][] found = new byte[1][];
+
+        readFrames(path, (id, size) -> id.equals("APIC") || id.equals("PIC"), (id, data) -> {
+            boolean isV22 = id.equals("PIC");
+
+            int encoding = data.get() & 0xFF;
+            if (isV22) {
+                data.position(data.position() + 3);     // Image format, e.g. "JPG"
+            } else {
+                skipString(data, 0);                    // MIME type is always ISO-8859-1
+            }
+            int pictureType = data.get() & 0xFF;
+            skipString(data, encoding);                 // Description
+
+            if (found[0] == null || pictureType == FRONT_COVER) {
+                found[0] = new byte[data.remaining()];
+                data.get(found[0]);
+            }
+            return pictureType != FRONT_COVER;
+        });
+        return found[0];
+    }
+
+    /*
+     *  Reads title/artist/album/track number/rating from the ID3v2 tag (falling back to ID3v1), and the
+     *  duration/bitrate from TLEN or the first MPEG frame header and its Xing/Info/VBRI header.
+     *  Small positional reads: the head of the tag plus any wanted frame beyond it, AUDIO_PROBE_SIZE
+     *  bytes after the tag and the last 128 bytes.
+     */
+    public static TrackTags readTags(Path path) throws IOException {
+        TrackTags tags = new TrackTags();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            FrameFilter wanted = (id, size) -> size <= MAX_TEXT_FRAME_SIZE && TAG_FRAMES.contains(id);
+            long audioStart = readTag(channel, wanted, (id, data) -> {
+                switch (id) {
+                    case "TIT2", "TT2" -> tags.title = readText(data);
+                    case "TPE1", "TP1" -> tags.artist = readText(data);
+                    case "TALB", "TAL" -> tags.album = readText(data);
+                    case "TRCK", "TRK" -> tags.trackNumber = parseLeadingInt(readText(data));
+                    case "TLEN", "TLE" -> tags.durationMillis = parseLeadingInt(readText(data));
+                    case "POPM", "POP" -> {
+                        // One frame per rating player: e-mail, rating byte, optional play counter
+                        skipString(data, 0);
+                        if (data.hasRemaining() && tags.rating == 0) tags.rating = data.get() & 0xFF;
+                    }
+                }
+                return true;
+            });
+
+            long fileSize = channel.size();
+            long audioEnd = fileSize;
+
+            if (fileSize >= 128) {
+                ByteBuffer trailer = ByteBuffer.allocate(128);
+                readFully(channel, trailer, fileSize - 128);
+                trailer.flip();
+                if (trailer.remaining() == 128 && trailer.get(0) == 'T' && trailer.get(1) == 'A' && trailer.get(2) == 'G') {
+                    audioEnd -= 128;
+                    readId3v1(trailer, tags);
+                }
+            }
+
+            readAudioHeader(channel, audioStart, audioEnd, tags);
+        }
+        return tags;
+    }
+
+    static void readFrames(Path path, FrameFilter wanted, FrameVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readTag(channel, wanted, visitor);
+        }
+    }
+
+    // Visits the wanted frames of the ID3v2 tag and returns the offset where the audio data starts
+    private static long readTag(FileChannel channel, FrameFilter wanted, FrameVisitor visitor) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+
+        if (header.remaining() < HEADER_SIZE || header.get() != 'I' || header.get() != 'D' || header.get() != '3') {
+            return 0;   // No ID3v2 tag
+        }
+
+        int majorVersion = header.get() & 0xFF;
+        header.get();   // Revision
+        int flags = header.get() & 0xFF;
+        int tagSize = readSyncSafe(header);
+        long audioStart = HEADER_SIZE + (long) tagSize + (((flags & 0x10) != 0) ? HEADER_SIZE : 0);
+
+        if (majorVersion < 2 || majorVersion > 4 || tagSize <= 0 || tagSize > MAX_TAG_SIZE) return audioStart;
+
+        // Tag-level unsynchronisation (before v2.4) shifts every offset, so such tags are read whole
+        if ((flags & 0x80) != 0 && majorVersion < 4) {
+            ByteBuffer tag = ByteBuffer.allocate(tagSize);
+            readFully(channel, tag, HEADER_SIZE);
+            tag.flip();
+            tag = removeUnsynchronisation(tag);
+            if ((flags & 0x40) != 0 && majorVersion > 2) {
+                skipExtendedHeader(tag, majorVersion);
+            }
+            iterateFrames(tag, majorVersion, wanted, visitor);
+            return audioStart;
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(Math.min(tagSize, TAG_HEAD_SIZE));
+        readFully(channel, head, HEADER_SIZE);
+        head.flip();
+
+        long position = HEADER_SIZE;
+        if ((flags & 0x40) != 0 && majorVersion > 2) {
+            ByteBuffer extendedHeader = readRegion(channel, head, position, 4);
+            if (extendedHeader == null) return audioStart;
+            // v2.4 counts the size field itself, v2.3 doesn't
+            int extendedSize = (majorVersion == 4) ? readSyncSafe(extendedHeader) : extendedHeader.getInt() + 4;
+            position += Math.max(4, extendedSize);
+        }
+
+        walkFrames(channel, head, position, HEADER_SIZE + (long) tagSize, majorVersion, wanted, visitor);
+        return audioStart;
+    }
+
+    /*
+     *  Walks the frames between position and tagEnd in the file, reading one frame header at a
+     *  time and the body only when the filter wants it. head holds the first bytes of the tag,
+     *  so the frames in it cost no further reads.
+     */
+    private static void walkFrames(FileChannel channel, ByteBuffer head, long position, long tagEnd,
+                                   int majorVersion, FrameFilter wanted, FrameVisitor visitor) throws IOException {
+        int idLength = (majorVersion == 2) ? 3 : 4;
+        int frameHeaderSize = (majorVersion == 2) ? 6 : 10;
+        byte[] idBytes = new byte[idLength];
+
+        while (position + frameHeaderSize <= tagEnd) {
+            ByteBuffer frameHeader = readRegion(channel, head, position, frameHeaderSize);
+            if (frameHeader == null) return;
+
+            frameHeader.get(idBytes);
+            if (idBytes[0] == 0) return;    // Reached padding
+
+            int frameSize;
+            int frameFlags = 0;
+            if (majorVersion == 2) {
+                frameSize = ((frameHeader.get() & 0xFF) << 16) | ((frameHeader.get() & 0xFF) << 8) | (frameHeader.get() & 0xFF);
+            } else {
+                frameSize = (majorVersion == 4) ? readSyncSafe(frameHeader) : frameHeader.getInt();
+                frameFlags = frameHeader.getShort() & 0xFFFF;
+            }
+
+            position += frameHeaderSize;
+            if (frameSize <= 0 || frameSize > tagEnd - position) return;
+            long bodyStart = position;
+            position += frameSize;
+
+            String id = new String(idBytes, StandardCharsets.ISO_8859_1);
+            if (!isReadable(frameFlags, majorVersion) || !wanted.wants(id, frameSize)) continue;
+
+            ByteBuffer data = readRegion(channel, head, bodyStart, frameSize);
+            if (data == null) return;
+            if (!visitFrame(id, data, frameFlags, majorVersion, visitor)) return;
+        }
+    }
+
+    // Same walk over a tag that's already in memory
+    private static void iterateFrames(ByteBuffer tag, int majorVersion, FrameFilter wanted, FrameVisitor visitor) {
+        int idLength = (majorVersion == 2) ? 3 : 4;
+        int frameHeaderSize = (majorVersion == 2) ? 6 : 10;
+        byte[] idBytes = new byte[idLength];
+
+        while (tag.remaining() >= frameHeaderSize) {
+            tag.get(idBytes);
+            if (idBytes[0] == 0) return;    // Reached padding
+
+            int frameSize;
+            int frameFlags = 0;
+            if (majorVersion == 2) {
+                frameSize = ((tag.get() & 0xFF) << 16) | ((tag.get() & 0xFF) << 8) | (tag.get() & 0xFF);
+            } else {
+                frameSize = (majorVersion == 4) ? readSyncSafe(tag) : tag.getInt();
+                frameFlags = tag.getShort() & 0xFFFF;
+            }
+
+            if (frameSize <= 0 || frameSize > tag.remaining()) return;
+
+            ByteBuffer data = tag.slice(tag.position(), frameSize);
+            tag.position(tag.position() + frameSize);
+
+            String id = new String(idBytes, StandardCharsets.ISO_8859_1);
+            if (!isReadable(frameFlags, majorVersion) || !wanted.wants(id, frameSize)) continue;
+            if (!visitFrame(id, data, frameFlags, majorVersion, visitor)) return;
+        }
+    }
+
+    // Undoes v2.4 frame-level encoding and hands the frame over; false when the visitor is done
+    private static boolean visitFrame(String id, ByteBuffer data, int frameFlags, int majorVersion,
+                                      FrameVisitor visitor) {
+        try {
+            if (majorVersion == 4) {
+                if ((frameFlags & 0x0001) != 0) data.position(4);     // Data length indicator
+                if ((frameFlags & 0x0002) != 0) data = removeUnsynchronisation(data);
+            }
+            return visitor.visit(id, data);
+        } catch (RuntimeException e) {
+            return true;    // Malformed frame; ignore it and keep going
+        }
+    }
+
+    // length bytes at offset in the file, served from the tag head when they're in it; null past the end of the file
+    private static ByteBuffer readRegion(FileChannel channel, ByteBuffer head, long offset, int length)
+            throws IOException {
+        long headOffset = offset - HEADER_SIZE;
+        if (headOffset + length <= head.limit()) return head.slice((int) headOffset, length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, offset);
+        buffer.flip();
+        return (buffer.remaining() == length) ? buffer : null;
+    }
+
+    private static void readId3v1(ByteBuffer trailer, TrackTags tags) {
+        if (tags.title.isEmpty()) tags.title = readFixedString(trailer, 3, 30);
+        if (tags.artist.isEmpty()) tags.artist = readFixedString(trailer, 33, 30);
+        if (tags.album.isEmpty()) tags.album = readFixedString(trailer, 63, 30);
+
+        // ID3v1.1 keeps the track number in the last byte of the comment
+        if (tags.trackNumber == 0 && trailer.get(125) == 0 && trailer.get(126) != 0) {
+            tags.trackNumber = trailer.get(126) & 0xFF;
+        }
+    }
+
+    private static String readFixedString(ByteBuffer buffer, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) end++;
+
+        byte[] bytes = new byte[end - offset];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    /*
+     *  Finds the first MPEG audio frame after the tag and derives bitrate and duration from it.
+     *  VBR files carry the total frame count in a Xing/Info or VBRI header inside that first
+     *  frame; for CBR files the audio size divided by the bitrate is exact enough.
+     */
+    private static void readAudioHeader(FileChannel channel, long audioStart, long audioEnd, TrackTags tags)
+            throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(AUDIO_PROBE_SIZE);
+        readFully(channel, probe, audioStart);
+        probe.flip();
+
+        int frameStart = -1;
+        for (int i = 0; i + 4 <= probe.limit(); i++) {
+            if ((probe.get(i) & 0xFF) == 0xFF && (probe.get(i + 1) & 0xE6) == 0xE2
+                    && ((probe.get(i + 2) >> 4) & 0x0F) != 0x0F && ((probe.get(i + 2) >> 2) & 0x03) != 0x03) {
+                frameStart = i;     // Sync word, Layer III, valid bitrate and sample rate
+                break;
+            }
+        }
+        if (frameStart < 0) return;
+
+        int versionBits = (probe.get(frameStart + 1) >> 3) & 0x03;     // 3 = MPEG1, 2 = MPEG2, 0 = MPEG2.5
+        if (versionBits == 1) return;
+        boolean mpeg1 = (versionBits == 3);
+
+        int bitrateIndex = (probe.get(frameStart + 2) >> 4) & 0x0F;
+        int sampleRateIndex = (probe.get(frameStart + 2) >> 2) & 0x03;
+        boolean mono = ((probe.get(frameStart + 3) >> 6) & 0x03) == 3;
+
+        int bitrate = mpeg1 ? MPEG1_BITRATES[bitrateIndex] : MPEG2_BITRATES[bitrateIndex];
+        int sampleRate = SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : (versionBits == 2) ? 1 : 2);
+        int samplesPerFrame = mpeg1 ? 1152 : 576;
+        long audioBytes = Math.max(0, audioEnd - audioStart - frameStart);
+
+        // Xing/Info header sits right after the side information
+        int xingOffset = frameStart + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        long frameCount = 0;
+        if (xingOffset + 12 <= probe.limit()) {
+            int marker = probe.getInt(xingOffset);
+            if (marker == 0x58696E67 || marker == 0x496E666F) {     // "Xing" or "Info"
+                int xingFlags = probe.getInt(xingOffset + 4);
+                if ((xingFlags & 0x01) != 0) frameCount = probe.getInt(xingOffset + 8) & 0xFFFFFFFFL;
+            }
+        }
+        int vbriOffset = frameStart + 36;
+        if (frameCount == 0 && vbriOffset + 18 <= probe.limit() && probe.getInt(vbriOffset) == 0x56425249) {    // "VBRI"
+            frameCount = probe.getInt(vbriOffset + 14) & 0xFFFFFFFFL;
+        }
+
+        long durationMillis;
+        if (frameCount > 0 && sampleRate > 0) {
+            durationMillis = frameCount * samplesPerFrame * 1000 / sampleRate;
+            if (durationMillis > 0) bitrate = (int) (audioBytes * 8 / durationMillis);
+        } else {
+            durationMillis = (bitrate > 0) ? audioBytes * 8 / bitrate : 0;     // kbit/s == bit/ms
+        }
+
+        tags.bitrate = bitrate;
+        if (tags.durationMillis <= 0) tags.durationMillis = durationMillis;
+    }
+
+    // Decodes a text information frame; multiple values (v2.4) are cut at the first one
+    static String readText(ByteBuffer data) {
+        if (!data.hasRemaining()) return "";
+
+        int encoding = data.get() & 0xFF;
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        Charset charset = switch (encoding) {
+            case 1 -> StandardCharsets.UTF_16;      // With BOM
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+
+        String text = new String(bytes, charset);
+        int terminator = text.indexOf('\0');
+        return (terminator >= 0 ? text.substring(0, terminator) : text).trim();
+    }
+
+    // "3/12" -> 3, "215000" -> 215000, garbage -> 0
+    private static int parseLeadingInt(String text) {
+        int value = 0;
+        for (int i = 0; i < text.length() && value < Integer.MAX_VALUE / 10; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isReadable(int frameFlags, int majorVersion) {
+        if (majorVersion == 3) return (frameFlags & 0x00C0) == 0;   // Compression, encryption
+        if (majorVersion == 4) return (frameFlags & 0x000C) == 0;   // Compression, encryption
+        return true;
+    }
+
+    private static void skipExtendedHeader(ByteBuffer tag, int majorVersion) {
+        if (tag.remaining() < 4) return;
+        int size = (majorVersion == 4) ? readSyncSafe(tag) - 4 : tag.getInt();
+        tag.position(Math.min(tag.limit(), tag.position() + Math.max(0, size)));
+    }
+
+    static int readSyncSafe(ByteBuffer buffer) {
+        return ((buffer.get() & 0x7F) << 21) | ((buffer.get() & 0x7F) << 14)
+             | ((buffer.get() & 0x7F) << 7)  |  (buffer.get() & 0x7F);
+    }
+
+    // Advances past a terminated string in the given ID3 text encoding
+    static void skipString(ByteBuffer data, int encoding) {
+        boolean wide = (encoding == 1 || encoding == 2);
+        while (data.hasRemaining()) {
+            if (wide) {
+                if (data.remaining() < 2) {
+                    data.position(data.limit());
+                    return;
+                }
+                byte first = data.get();
+                byte second = data.get();
+                if (first == 0 && second == 0) return;
+            } else if (data.get() == 0) {
+                return;
+            }
+        }
+    }
+
+    // Drops the 0x00 that follows every 0xFF in unsynchronised data
+    private static ByteBuffer removeUnsynchronisation(ByteBuffer data) {
+        ByteBuffer result = ByteBuffer.allocate(data.remaining());
+        boolean previousFF = false;
+        while (data.hasRemaining()) {
+            byte value = data.get();
+            if (!(previousFF && value == 0)) {
+                result.put(value);
+            }
+            previousFF = (value == (byte) 0xFF);
+        }
+        result.flip();
+        return result;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) return;
+            position += read;
+        }
+    }
+}
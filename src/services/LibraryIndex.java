@@ -0,0 +1,349 @@
+package services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import models.Track;
+
+
+/*
+ *  On-disk index of the music library (data/library.idx).
+ *
+ *  Layout (big-endian):
+ *      int magic, int version, int nextId, int entryCount
+ *      entryCount x { int id, long size, long modified, byte tagged, int trackNumber,
+ *                     long durationMillis, int bitrate, byte rating, byte analyzed, float integratedLufs,
+ *                     float truePeakDb,
+ *                     string path, string title, string artist, string album }
+ *  where every string is an int byte length followed by UTF-8 bytes.
+ *
+ *  The file is read through a memory-mapped buffer so startup never goes through the
+ *  directory listing; TrackService reconciles against the real folder afterwards.
+ *  Ids are persistent across sessions and are never reused.
+ *  Entries are also grouped by album tag and folder in memory, for album gain lookups.
+ */
+public class LibraryIndex {
+    private static final Path INDEX_PATH = Paths.get("data", "library.idx");
+    private static final int MAGIC = 0x4A424958;    // "JBIX"
+    private static final int VERSION = 1;
+    private static final int FIXED_ENTRY_BYTES = 4 + 8 + 8 + 1 + 4 + 8 + 4 + 1 + 1 + 4 + 4 + 4 * 4;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, List<Entry>> albums = new HashMap<>();
+    private int nextId = 0;
+    private boolean dirty = false;
+
+    public static class Entry {
+        private final int id;
+        private final String path;
+        private long size;
+        private long modified;
+
+        // Tag metadata, valid for the size/mtime above when tagged is set
+        private boolean tagged;
+        private String title = "";
+        private String artist = "";
+        private String album = "";
+        private int trackNumber;
+        private long durationMillis;
+        private int bitrate;
+        private int rating;
+
+        // Loudness analysis, valid for the size/mtime above when analyzed is set
+        private boolean analyzed;
+        private float integratedLufs;
+        private float truePeakDb;
+
+        Entry(int id, String path, long size, long modified) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public boolean isTagged() {
+            return tagged;
+        }
+
+        public String getAlbum() {
+            return album;
+        }
+
+        public boolean isAnalyzed() {
+            return analyzed;
+        }
+
+        public float getIntegratedLufs() {
+            return integratedLufs;
+        }
+
+        public float getTruePeakDb() {
+            return truePeakDb;
+        }
+
+        public Track toTrack() {
+            return new Track(id, new File(path), title, artist, album, trackNumber, durationMillis, bitrate, rating);
+        }
+    }
+
+    // Returns false if there was no usable index (first launch, corrupted or outdated file)
+    public synchronized boolean load() {
+        if (!Files.exists(INDEX_PATH)) return false;
+
+        try (FileChannel channel = FileChannel.open(INDEX_PATH, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.out.println("[INFO] Library index is outdated and will be rebuilt.");
+                return false;
+            }
+
+            int storedNextId = buffer.getInt();
+            int count = buffer.getInt();
+            byte[] scratch = new byte[256];
+
+            entries.clear();
+            albums.clear();
+            for (int i = 0; i < count; i++) {
+                int id = buffer.getInt();
+                long size = buffer.getLong();
+                long modified = buffer.getLong();
+
+                boolean tagged = buffer.get() != 0;
+                int trackNumber = buffer.getInt();
+                long durationMillis = buffer.getLong();
+                int bitrate = buffer.getInt();
+                int rating = buffer.get() & 0xFF;
+                boolean analyzed = buffer.get() != 0;
+                float integratedLufs = buffer.getFloat();
+                float truePeakDb = buffer.getFloat();
+
+                String path = getString(buffer, scratch);
+                Entry entry = new Entry(id, path, size, modified);
+                entry.tagged = tagged;
+                entry.trackNumber = trackNumber;
+                entry.durationMillis = durationMillis;
+                entry.bitrate = bitrate;
+                entry.rating = rating;
+                entry.analyzed = analyzed;
+                entry.integratedLufs = integratedLufs;
+                entry.truePeakDb = truePeakDb;
+                entry.title = getString(buffer, scratch);
+                entry.artist = getString(buffer, scratch);
+                entry.album = getString(buffer, scratch);
+                entries.put(path, entry);
+                addToAlbum(entry);
+            }
+            nextId = storedNextId;
+            dirty = false;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ERROR] Failed to read library index: " + e.getMessage());
+            entries.clear();
+            albums.clear();
+            return false;
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty) return;
+
+        Path tempPath = INDEX_PATH.resolveSibling("library.idx.tmp");
+        try {
+            Files.createDirectories(INDEX_PATH.getParent());
+            try (FileChannel channel = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(nextId).putInt(entries.size());
+
+                for (Entry entry : entries.values()) {
+                    byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+                    byte[] title = entry.title.getBytes(StandardCharsets.UTF_8);
+                    byte[] artist = entry.artist.getBytes(StandardCharsets.UTF_8);
+                    byte[] album = entry.album.getBytes(StandardCharsets.UTF_8);
+
+                    int entryBytes = FIXED_ENTRY_BYTES + path.length + title.length + artist.length + album.length;
+                    if (buffer.remaining() < entryBytes) {
+                        flush(channel, buffer);
+                        if (buffer.capacity() < entryBytes) {
+                            buffer = ByteBuffer.allocate(entryBytes);
+                        }
+                    }
+                    buffer.putInt(entry.id)
+                          .putLong(entry.size)
+                          .putLong(entry.modified)
+                          .put((byte) (entry.tagged ? 1 : 0))
+                          .putInt(entry.trackNumber)
+                          .putLong(entry.durationMillis)
+                          .putInt(entry.bitrate)
+                          .put((byte) entry.rating)
+                          .put((byte) (entry.analyzed ? 1 : 0))
+                          .putFloat(entry.integratedLufs)
+                          .putFloat(entry.truePeakDb);
+                    putString(buffer, path);
+                    putString(buffer, title);
+                    putString(buffer, artist);
+                    putString(buffer, album);
+                }
+                flush(channel, buffer);
+            }
+            // Swap in atomically so a crash mid-write never leaves a truncated index behind
+            Files.move(tempPath, INDEX_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to save library index: " + e.getMessage());
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getInt();
+        byte[] bytes = (length <= scratch.length) ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    // --- Getters ---
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // Entries with the same album tag as the given one in the same folder, itself included
+    public synchronized List<Entry> getAlbumEntries(Entry entry) {
+        List<Entry> album = albums.get(albumKey(entry));
+        return (album != null) ? new ArrayList<>(album) : List.of(entry);
+    }
+
+
+    // --- Methods ---
+
+    // Adds a new entry or refreshes the size/mtime of a known one; returns the stored entry
+    public synchronized Entry put(String path, long size, long modified) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(nextId++, path, size, modified);
+            entries.put(path, entry);
+            dirty = true;
+        } else if (entry.size != size || entry.modified != modified) {
+            entry.size = size;
+            entry.modified = modified;
+            entry.tagged = false;   // Tags and loudness have to be read again
+            entry.analyzed = false;
+            dirty = true;
+        }
+        return entry;
+    }
+
+    public synchronized void setTags(String path, Id3Reader.TrackTags tags) {
+        Entry entry = entries.get(path);
+        if (entry == null) return;
+
+        if (!entry.album.equals(tags.album)) {
+            removeFromAlbum(entry);
+            entry.album = tags.album;
+            addToAlbum(entry);
+        }
+        entry.title = tags.title;
+        entry.artist = tags.artist;
+        entry.trackNumber = tags.trackNumber;
+        entry.durationMillis = tags.durationMillis;
+        entry.bitrate = tags.bitrate;
+        entry.rating = tags.rating;
+        entry.tagged = true;
+        dirty = true;
+    }
+
+    public synchronized void setLoudness(String path, LoudnessAnalyzer.Loudness loudness) {
+        Entry entry = entries.get(path);
+        if (entry == null) return;
+
+        entry.integratedLufs = (float) loudness.integratedLufs;
+        entry.truePeakDb = (float) loudness.truePeakDb;
+        entry.analyzed = true;
+        dirty = true;
+    }
+
+    public synchronized Entry remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            removeFromAlbum(entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+
+    // --- Albums ---
+
+    // Album tags only group tracks within one folder
+    private static String albumKey(Entry entry) {
+        int separator = entry.path.lastIndexOf(File.separatorChar);
+        return entry.path.substring(0, Math.max(separator, 0)) + '\0' + entry.album;
+    }
+
+    // Caller holds the lock
+    private void addToAlbum(Entry entry) {
+        if (entry.album.isEmpty()) return;
+        albums.computeIfAbsent(albumKey(entry), key -> new ArrayList<>()).add(entry);
+    }
+
+    // Caller holds the lock
+    private void removeFromAlbum(Entry entry) {
+        if (entry.album.isEmpty()) return;
+
+        String key = albumKey(entry);
+        List<Entry> album = albums.get(key);
+        if (album != null && album.remove(entry) && album.isEmpty()) albums.remove(key);
+    }
+}
@@ -0,0 +1,242 @@
+package services;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+
+/*
+ *  Recursive music folder scanner.
+ *
+ *  Every directory is a fork/join task, so sibling artist/album folders are listed in parallel
+ *  on all cores. Results are handed to the consumer in batches while the walk is still running,
+ *  which lets the caller stream tracks into the library instead of waiting for the whole tree.
+ *
+ *  ->  maxDepth limits how many directory levels below the root are visited (0 = root only)
+ *  ->  followSymlinks decides whether linked directories/files are entered; loops are detected
+ *      through the real path of every visited directory
+ *  ->  fileProcessor (optional) runs on every track file before it is batched, e.g. to read its
+ *      tags; the files of one directory are split into chunks so a flat folder still uses all cores
+ */
+public class LibraryScanner {
+    private static final int BATCH_SIZE = 256;
+    private static final int FILE_CHUNK_SIZE = 32;
+
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), forkJoinPool -> {
+        // Scans run alongside playback, so they only get the cores nothing else wants
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName("library-scanner-" + thread.getPoolIndex());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }, null, false);
+    private final int maxDepth;
+    private final boolean followSymlinks;
+    private final Consumer<ScannedFile> fileProcessor;
+
+    public static class ScannedFile {
+        private final Path path;
+        private final long size;
+        private final long modified;
+        private Id3Reader.TrackTags tags;
+
+        public ScannedFile(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        // Null unless the file processor read them
+        Id3Reader.TrackTags getTags() {
+            return tags;
+        }
+
+        void setTags(Id3Reader.TrackTags tags) {
+            this.tags = tags;
+        }
+    }
+
+    public LibraryScanner(int maxDepth, boolean followSymlinks, Consumer<ScannedFile> fileProcessor) {
+        this.maxDepth = Math.max(0, maxDepth);
+        this.followSymlinks = followSymlinks;
+        this.fileProcessor = fileProcessor;
+    }
+
+    public void scan(Path root, Consumer<List<ScannedFile>> batchConsumer) {
+        scan(root, 0, batchConsumer, null);
+    }
+
+    /*
+     *  Blocks until the tree is walked; batches are delivered from the worker threads.
+     *  ->  rootDepth is the depth of root below the library folder, so sub-scans keep the depth limit
+     *  ->  directoryConsumer (optional) sees every directory before its contents are listed,
+     *      which is what LibraryWatcher uses to register without a second walk
+     */
+    public void scan(Path root, int rootDepth, Consumer<List<ScannedFile>> batchConsumer,
+                     Consumer<Path> directoryConsumer) {
+        if (!Files.isDirectory(root) || rootDepth > maxDepth) return;
+
+        BatchCollector collector = new BatchCollector(batchConsumer);
+        Set<Path> visited = ConcurrentHashMap.newKeySet();
+        pool.invoke(new DirectoryTask(root, rootDepth, collector, visited, directoryConsumer));
+        collector.flush();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public static boolean isTrackFile(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".mp3");
+    }
+
+
+    // --- Subclasses ---
+
+    @SuppressWarnings("serial")     // Fork/join tasks are never serialized
+    private class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final int depth;
+        private final BatchCollector collector;
+        private final Set<Path> visited;
+        private final Consumer<Path> directoryConsumer;
+
+        DirectoryTask(Path directory, int depth, BatchCollector collector, Set<Path> visited,
+                      Consumer<Path> directoryConsumer) {
+            this.directory = directory;
+            this.depth = depth;
+            this.collector = collector;
+            this.visited = visited;
+            this.directoryConsumer = directoryConsumer;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (!visited.add(directory.toRealPath())) return;  // Already walked through another link
+            } catch (IOException e) {
+                return;
+            }
+            if (directoryConsumer != null) {
+                directoryConsumer.accept(directory);
+            }
+
+            LinkOption[] linkOptions = followSymlinks ? new LinkOption[0] : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<ScannedFile> files = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class, linkOptions);
+                    } catch (IOException e) {
+                        continue;   // Broken link or file vanished mid-scan
+                    }
+
+                    if (attributes.isDirectory()) {
+                        if (depth < maxDepth) {
+                            subtasks.add(new DirectoryTask(path, depth + 1, collector, visited, directoryConsumer));
+                        }
+                    } else if (attributes.isRegularFile() && isTrackFile(path)) {
+                        files.add(new ScannedFile(path.toAbsolutePath(),
+                                                  attributes.size(),
+                                                  attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to scan " + directory + ": " + e.getMessage());
+            }
+
+            if (!files.isEmpty()) {
+                subtasks.add(new FileChunkTask(files, 0, files.size(), collector));
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class FileChunkTask extends RecursiveAction {
+        private final List<ScannedFile> files;
+        private final int from, to;
+        private final BatchCollector collector;
+
+        FileChunkTask(List<ScannedFile> files, int from, int to, BatchCollector collector) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILE_CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FileChunkTask(files, from, middle, collector),
+                          new FileChunkTask(files, middle, to, collector));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                ScannedFile file = files.get(i);
+                if (fileProcessor != null) {
+                    fileProcessor.accept(file);
+                }
+                collector.add(file);
+            }
+        }
+    }
+
+    private static class BatchCollector {
+        private final Consumer<List<ScannedFile>> consumer;
+        private List<ScannedFile> batch = new ArrayList<>(BATCH_SIZE);
+
+        BatchCollector(Consumer<List<ScannedFile>> consumer) {
+            this.consumer = consumer;
+        }
+
+        void add(ScannedFile file) {
+            List<ScannedFile> full = null;
+            synchronized (this) {
+                batch.add(file);
+                if (batch.size() >= BATCH_SIZE) {
+                    full = batch;
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            // Hand over outside the lock so other workers keep scanning
+            if (full != null) consumer.accept(full);
+        }
+
+        void flush() {
+            List<ScannedFile> rest;
+            synchronized (this) {
+                rest = batch;
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+            if (!rest.isEmpty()) consumer.accept(rest);
+        }
+    }
+}
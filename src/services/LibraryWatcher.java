@@ -0,0 +1,131 @@
+package services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/*
+ *  Watches the music folder tree and reports changed paths in debounced bursts.
+ *
+ *  A download produces a flurry of create/modify events for the same file (yt-dlp writes the
+ *  audio, ffmpeg rewrites it as mp3), so events are collected until the folder has been quiet
+ *  for DEBOUNCE_MILLIS, capped at MAX_DELAY_MILLIS for folders that never settle.
+ *
+ *  Directories are registered by LibraryScanner's directory callback, so watching the tree costs
+ *  no extra walk. Overflowed event queues are reported as the root path, which means "rescan".
+ */
+public class LibraryWatcher {
+    private static final long DEBOUNCE_MILLIS = 750;
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    private final Path root;
+    private final Consumer<Set<Path>> changeConsumer;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> pendingPaths = new LinkedHashSet<>();
+    private long firstPendingTime;
+
+    public LibraryWatcher(Path root, Consumer<Set<Path>> changeConsumer) throws IOException {
+        this.root = root;
+        this.changeConsumer = changeConsumer;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    // Thread-safe; called from the scanner's worker threads
+    public void register(Path directory) {
+        try {
+            WatchKey key = directory.register(watchService,
+                                              StandardWatchEventKinds.ENTRY_CREATE,
+                                              StandardWatchEventKinds.ENTRY_DELETE,
+                                              StandardWatchEventKinds.ENTRY_MODIFY);
+            synchronized (directories) {
+                directories.put(key, directory);
+            }
+        } catch (IOException | ClosedWatchServiceException e) {
+            System.err.println("[ERROR] Failed to watch " + directory + ": " + e.getMessage());
+        }
+    }
+
+    public void start() {
+        Thread watcher = new Thread(this::processEvents, "library-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to close library watcher: " + e.getMessage());
+        }
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = pendingPaths.isEmpty()
+                                ? watchService.take()
+                                : watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (key == null || System.currentTimeMillis() - firstPendingTime > MAX_DELAY_MILLIS) {
+                    flushPending();
+                    if (key == null) continue;
+                }
+
+                Path directory;
+                synchronized (directories) {
+                    directory = directories.get(key);
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        addPending(root);
+                    } else if (directory != null) {
+                        addPending(directory.resolve((Path) event.context()));
+                    }
+                }
+
+                if (!key.reset()) {
+                    synchronized (directories) {
+                        directories.remove(key);    // Directory was deleted or became inaccessible
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Watcher was stopped
+        }
+    }
+
+    private void addPending(Path path) {
+        if (pendingPaths.isEmpty()) {
+            firstPendingTime = System.currentTimeMillis();
+        }
+        pendingPaths.add(path);
+    }
+
+    private void flushPending() {
+        if (pendingPaths.isEmpty()) return;
+
+        Set<Path> changedPaths = new LinkedHashSet<>(pendingPaths);
+        pendingPaths.clear();
+        try {
+            changeConsumer.accept(changedPaths);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] Failed to apply library changes: " + e.getMessage());
+        }
+    }
+}
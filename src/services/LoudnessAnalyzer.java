@@ -0,0 +1,194 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/*
+ *  Offline EBU R128 loudness analysis, one decode per track.
+ *
+ *  ->  ffmpeg's ebur128 filter measures integrated loudness (LUFS) and true peak (dBTP) of the
+ *      whole file, as bulk work on the shared AnalysisScheduler
+ *  ->  Results are cached in the library index by TrackService, so every track is decoded once
+ *      and again only when the file changes
+ *  ->  gainDb() turns a measurement into one static ReplayGain-style gain that the player applies
+ *      on load, so normalization costs nothing while playing
+ *  ->  ffmpeg is taken from bin/ (like the downloaders) or the PATH; without it analysis turns
+ *      itself off and the player keeps the realtime normalizer
+ */
+public class LoudnessAnalyzer {
+    private static final LoudnessAnalyzer instance = new LoudnessAnalyzer();
+
+    public static final double REFERENCE_LUFS = -18.0;     // ReplayGain 2.0 reference level
+    private static final double PEAK_CEILING_DB = -1.0;    // Gains never push true peaks above this
+
+    private static final Pattern INTEGRATED_PATTERN = Pattern.compile("^\\s*I:\\s+(-?[\\d.]+|-inf)\\s+LUFS");
+    private static final Pattern PEAK_PATTERN = Pattern.compile("^\\s*Peak:\\s+(-?[\\d.]+|-inf)\\s+dBFS");
+
+    private final String ffmpegPath = findFfmpeg();
+    private final Set<String> queuedPaths = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile boolean available = true;
+
+    private LoudnessAnalyzer() {}
+
+    public static LoudnessAnalyzer getInstance() {
+        return instance;
+    }
+
+    public static class Loudness {
+        final double integratedLufs;
+        final double truePeakDb;
+
+        Loudness(double integratedLufs, double truePeakDb) {
+            this.integratedLufs = integratedLufs;
+            this.truePeakDb = truePeakDb;
+        }
+    }
+
+    /*
+     *  Queues a file for analysis; the callback runs on an analysis worker with the result, and
+     *  is skipped when the file can't be measured. Files already queued are not queued again.
+     */
+    public void submit(Path file, Consumer<Loudness> callback) {
+        if (!available) return;
+
+        String key = file.toString();
+        if (!queuedPaths.add(key)) return;
+
+        pendingCount.incrementAndGet();
+        AnalysisScheduler.getInstance().submit(key, AnalysisScheduler.Priority.BACKGROUND, () -> {
+            Loudness loudness = null;
+            try {
+                if (available) loudness = analyze(file);
+            } finally {
+                release(key);
+            }
+            if (loudness != null) callback.accept(loudness);
+        }, () -> release(key));
+    }
+
+    private void release(String key) {
+        queuedPaths.remove(key);
+        pendingCount.decrementAndGet();
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    // True when nothing is queued or being analyzed
+    public boolean isIdle() {
+        return pendingCount.get() == 0;
+    }
+
+    /*
+     *  Gain in dB that brings a track from its integrated loudness to REFERENCE_LUFS, lowered if
+     *  needed so its true peak stays under PEAK_CEILING_DB. NaN for silent tracks.
+     */
+    public static double gainDb(double integratedLufs, double truePeakDb) {
+        if (Double.isInfinite(integratedLufs) || Double.isNaN(integratedLufs)) return Double.NaN;
+
+        double gain = REFERENCE_LUFS - integratedLufs;
+        if (!Double.isInfinite(truePeakDb)) {
+            gain = Math.min(gain, PEAK_CEILING_DB - truePeakDb);
+        }
+        return gain;
+    }
+
+    private Loudness analyze(Path file) {
+        ProcessBuilder builder = new ProcessBuilder(
+            ffmpegPath, "-hide_banner", "-nostats", "-nostdin",
+            "-i", file.toString(),
+            "-map", "0:a:0",
+            "-af", "ebur128=peak=true:framelog=verbose",
+            "-f", "null", "-");
+        builder.redirectErrorStream(true);
+
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            available = false;
+            System.out.println("[INFO] ffmpeg not found, loudness analysis is disabled: " + e.getMessage());
+            return null;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            Loudness loudness = parseSummary(reader);
+            int exitCode = process.waitFor();
+            if (exitCode != 0 || loudness == null) {
+                System.err.println("[ERROR] Loudness analysis failed for " + file + " (exit code " + exitCode + ")");
+                return null;
+            }
+            return loudness;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Loudness analysis failed for " + file + ": " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /*
+     *  Reads the summary ebur128 prints when the stream ends:
+     *      [Parsed_ebur128_0 @ 0x...] Summary:
+     *        Integrated loudness:
+     *          I:         -14.3 LUFS
+     *        ...
+     *        True peak:
+     *          Peak:        0.4 dBFS
+     */
+    static Loudness parseSummary(BufferedReader reader) throws IOException {
+        double integrated = Double.NaN;
+        double peak = Double.NaN;
+        boolean inSummary = false;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!inSummary) {
+                inSummary = line.trim().endsWith("Summary:");
+                continue;
+            }
+
+            Matcher integratedMatcher = INTEGRATED_PATTERN.matcher(line);
+            if (integratedMatcher.find()) {
+                integrated = parseDecibels(integratedMatcher.group(1));
+                continue;
+            }
+            Matcher peakMatcher = PEAK_PATTERN.matcher(line);
+            if (peakMatcher.find()) {
+                peak = parseDecibels(peakMatcher.group(1));
+            }
+        }
+
+        if (Double.isNaN(integrated)) return null;
+        return new Loudness(integrated, Double.isNaN(peak) ? Double.NEGATIVE_INFINITY : peak);
+    }
+
+    private static double parseDecibels(String value) {
+        return value.equals("-inf") ? Double.NEGATIVE_INFINITY : Double.parseDouble(value);
+    }
+
+    private static String findFfmpeg() {
+        for (String candidate : new String[] { "bin/ffmpeg.exe", "bin/ffmpeg" }) {
+            if (Files.isExecutable(Paths.get(candidate))) return candidate;
+        }
+        return "ffmpeg";
+    }
+}
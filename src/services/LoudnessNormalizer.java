@@ -2,64 +2,161 @@ package services;
 
 import javafx.scene.media.MediaPlayer;
 
-// TODO: Implement LoudnessNormalizer that normalizes to user setting rather than max volume
+/*
+ *  Volume leveling for one MediaPlayer.
+ *  ->  Tracks with a cached loudness analysis get one static gain (setStaticGain), applied on
+ *      load; no spectrum listener is attached, so leveling costs nothing during playback
+ *  ->  Tracks not analyzed yet fall back to the realtime mode, a fixed-rate stage driven by the
+ *      audio spectrum callbacks (see onSpectrum)
+ *  ->  The crossfade gain multiplies whatever the resulting level is
+ *  Settings reach it through AudioChain, which owns the listeners.
+ */
 public class LoudnessNormalizer {
-    
+
     private final MediaPlayer mediaPlayer;
     private boolean enabled = SettingsService.getInstance().isNormalizerEnabled();
 
-    private static final double TARGET_LEVEL = 0.35;  // Target average loudness (arbitrary units, tweakable)
-    private static final double SMOOTHING_FACTOR = 0.05;  // How quickly to adjust
+    /*
+     *  ___Realtime__stage___
+     *  -> Spectrum magnitudes (dB) become band powers through a lookup table in 0.1 dB steps
+     *  -> Mean band power goes into a ring buffer; its running sum gives the RMS level over
+     *     the last RMS_WINDOW callbacks
+     *  -> The volume follows target / RMS with a short attack (getting quieter) and a long
+     *     release (getting louder), so transients are tamed without pumping
+     *  -> The volume is only pushed to the media stack once it moved by more than DEAD_BAND_DB
+     */
+    private static final double SPECTRUM_INTERVAL = 0.05;       // Seconds between callbacks
+    private static final int SPECTRUM_BANDS = 32;
+    private static final int RMS_WINDOW = 60;                    // 3 seconds of callbacks
+    private static final double ATTACK_SECONDS = 0.3;
+    private static final double RELEASE_SECONDS = 3.0;
+    private static final double DEAD_BAND_DB = 0.5;
+
+    private static final double ATTACK_COEFFICIENT = 1 - Math.exp(-SPECTRUM_INTERVAL / ATTACK_SECONDS);
+    private static final double RELEASE_COEFFICIENT = 1 - Math.exp(-SPECTRUM_INTERVAL / RELEASE_SECONDS);
+    private static final double DEAD_BAND_UP = Math.pow(10, DEAD_BAND_DB / 20.0);
+    private static final double DEAD_BAND_DOWN = 1 / DEAD_BAND_UP;
+
+    private static final double LUT_MIN_DB = -120.0;
+    private static final int LUT_STEPS_PER_DB = 10;
+    private static final double[] DB_TO_POWER = new double[(int) (-LUT_MIN_DB * LUT_STEPS_PER_DB) + 1];
+    static {
+        for (int i = 0; i < DB_TO_POWER.length; i++) {
+            DB_TO_POWER[i] = Math.pow(10, (LUT_MIN_DB + (double) i / LUT_STEPS_PER_DB) / 10.0);
+        }
+    }
+
+    private final double[] powerWindow = new double[RMS_WINDOW];
+    private int windowPosition = 0;
+    private int windowFill = 0;
+    private double windowSum = 0;
+
+    private double targetDb = Double.NaN;   // Cached from settings, with its linear amplitude
+    private double targetAmplitude;
+
     private double baseVolume;      // Get from volumeSlider
+    private double level;           // Leveled volume, before the fade gain
+    private double appliedLevel;    // Level last pushed to the player
+    private double fadeGain = 1.0;  // Set by CrossfadeEngine while tracks overlap
+    private double staticGain = Double.NaN;     // Linear gain from loudness analysis, NaN in realtime mode
 
-    @SuppressWarnings("unused")
     public LoudnessNormalizer(MediaPlayer mediaPlayer) {
         this.mediaPlayer = mediaPlayer;
 
         baseVolume = this.mediaPlayer.getVolume();
+        level = baseVolume;
+        appliedLevel = baseVolume;
+
+        updateMode();
+    }
 
-        SettingsService.getInstance().normalizerStatusProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal != null) enabled = newVal;
-            if (!enabled) mediaPlayer.setVolume(baseVolume);
-        });
+    // Attaches the spectrum listener only while realtime leveling is actually needed
+    private void updateMode() {
+        if (enabled && Double.isNaN(staticGain)) {
+            mediaPlayer.setAudioSpectrumInterval(SPECTRUM_INTERVAL);
+            mediaPlayer.setAudioSpectrumNumBands(SPECTRUM_BANDS);
+            mediaPlayer.setAudioSpectrumListener(this::onSpectrum);
+            return;
+        }
+
+        mediaPlayer.setAudioSpectrumListener(null);
+        level = enabled ? clamp(baseVolume * staticGain, 0.0, 1.0) : baseVolume;
+        applyVolume();
+    }
 
-        // Attach spectrum listener to monitor loudness
-        this.mediaPlayer.setAudioSpectrumInterval(0.05);    // 50 ms updates
-        this.mediaPlayer.setAudioSpectrumNumBands(32);
+    private void onSpectrum(double timestamp, double duration, float[] magnitudes, float[] phases) {
+        double power = 0.0;
+        for (float magnitude : magnitudes) {
+            power += dbToPower(magnitude);
+        }
+        power /= magnitudes.length;
 
-        this.mediaPlayer.setAudioSpectrumListener((timestamp, duration, magnitudes, phases) -> {
-            if (!enabled) return;   // Do nothing if disabled
+        // Running sum over the ring buffer; the oldest slot is replaced
+        windowSum += power - powerWindow[windowPosition];
+        powerWindow[windowPosition] = power;
+        windowPosition = (windowPosition + 1) % RMS_WINDOW;
+        if (windowFill < RMS_WINDOW) windowFill++;
+        double rms = Math.sqrt(Math.max(windowSum, 0.0) / windowFill);
 
-            double average = 0.0;
-            for (double magnitude : magnitudes) {
-                average += Math.pow(10, magnitude / 20.0);  // Convert dB to linear amplitude
-            }
-            average /= magnitudes.length;
+        double desiredLevel = clamp(baseVolume * targetAmplitude() / (rms + 1e-9), 0.0, 1.0);
+        double coefficient = (desiredLevel < level) ? ATTACK_COEFFICIENT : RELEASE_COEFFICIENT;
+        level += (desiredLevel - level) * coefficient;
 
-            // Calculate gain adjustment towards target
-            double adjustment = TARGET_LEVEL / (average + 1e-9);
+        // Inaudible changes are not worth a call into the media stack
+        if (level > appliedLevel * DEAD_BAND_UP || level < appliedLevel * DEAD_BAND_DOWN) {
+            applyVolume();
+        }
+    }
 
-            // Smooth changes to avoid pumping effect
-            double currentVolume = mediaPlayer.getVolume();
-            double targetVolume = clamp(baseVolume * adjustment, 0.0, 1.0);
-            double newVolume = currentVolume + (targetVolume - currentVolume) * SMOOTHING_FACTOR;
+    private double targetAmplitude() {
+        double settingDb = SettingsService.getInstance().getNormalizerTarget();
+        if (settingDb != targetDb) {
+            targetDb = settingDb;
+            targetAmplitude = Math.pow(10, targetDb / 20.0);
+        }
+        return targetAmplitude;
+    }
 
-            mediaPlayer.setVolume(newVolume);
-        });
+    private static double dbToPower(double db) {
+        int index = (int) ((db - LUT_MIN_DB) * LUT_STEPS_PER_DB + 0.5);
+        if (index <= 0) return DB_TO_POWER[0];
+        return DB_TO_POWER[Math.min(index, DB_TO_POWER.length - 1)];
     }
 
     public boolean isEnabled() {
         return enabled;
     }
 
+    public void setEnabled(boolean status) {
+        enabled = status;
+        updateMode();
+    }
+
     public void setBaseVolume(double volume) {
         baseVolume = clamp(volume, 0.0, 1.0);
-        if (!enabled) {
-            mediaPlayer.setVolume(baseVolume);
+        if (!enabled || !Double.isNaN(staticGain)) {
+            updateMode();
         }
     }
 
+    // Gain in dB from loudness analysis (see LoudnessAnalyzer); NaN selects the realtime mode
+    public void setStaticGain(double gainDb) {
+        staticGain = Double.isNaN(gainDb) ? Double.NaN : Math.pow(10, gainDb / 20.0);
+        updateMode();
+    }
+
+    // Multiplier on top of the normalized volume, 0 (silent) to 1
+    public void setFadeGain(double gain) {
+        fadeGain = clamp(gain, 0.0, 1.0);
+        applyVolume();
+    }
+
+    private void applyVolume() {
+        appliedLevel = level;
+        mediaPlayer.setVolume(level * fadeGain);
+    }
+
     private double clamp(double value, double min, double max) {
         return Math.max(min, Math.min(max, value));
     }
-}
\ No newline at end of file
+}
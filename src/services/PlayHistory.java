@@ -0,0 +1,563 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/*
+ *  What was played, skipped and finished, by track id.
+ *
+ *  ->  Events are counted in memory right away and queued for a writer thread, which appends
+ *      them to data/play_history.log through a buffered FileChannel; recording never waits on I/O
+ *  ->  Every COMPACT_EVERY records the counters are folded into a snapshot (data/play_stats.bin)
+ *      and the log starts over, so startup reads one compact file plus a short log tail
+ *  ->  Per-track counters (plays, skips, last played) live in arrays indexed by id; plays are
+ *      also tallied per month, so "top tracks of a month" only looks at that month's tally
+ *
+ *  Log:       int magic, int version, long generation, then 13 byte records
+ *             { long epochMillis, int trackId, byte type }
+ *  Snapshot:  int magic, int version, long generation,
+ *             int trackCount x { int id, int plays, int skips, long lastPlayed },
+ *             int monthCount x { int yyyymm, int entryCount x { int id, int plays } }
+ *  The snapshot covers every log up to its generation; a log with the same or an older
+ *  generation was already folded in (the app stopped between the two steps) and is dropped.
+ */
+public class PlayHistory {
+    private static final Path LOG_PATH = Paths.get("data", "play_history.log");
+    private static final Path STATS_PATH = Paths.get("data", "play_stats.bin");
+    private static final int LOG_MAGIC = 0x4A42504C;     // "JBPL"
+    private static final int STATS_MAGIC = 0x4A425053;   // "JBPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+    private static final int RECORD_BYTES = 8 + 4 + 1;
+    private static final int COMPACT_EVERY = 10_000;
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private static final byte PLAY = 1, SKIP = 2, COMPLETE = 3;
+
+    private static final PlayHistory instance = new PlayHistory();     // After the constants above
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final BlockingQueue<long[]> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // Guarded by this
+    private int[] plays = new int[0];
+    private int[] skips = new int[0];
+    private long[] lastPlayed = new long[0];
+    private final Map<Integer, MonthTally> months = new TreeMap<>();
+    private long generation = 0;
+
+    // Writer thread, and the shutdown hook once the app exits
+    private final Object logLock = new Object();
+    private FileChannel log;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private int recordsInLog = 0;
+
+    private PlayHistory() {
+        loadSnapshot();
+        int replayed = replayLog();
+        System.out.println("[INFO] Play history loaded (" + replayed + " new event(s) since the last compaction).");
+
+        Thread writer = new Thread(() -> {
+            if (replayed > 0) {
+                synchronized (logLock) {
+                    compact();
+                }
+            }
+            writeLoop();
+        }, "play-history-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushPending));
+    }
+
+    public static PlayHistory getInstance() {
+        return instance;
+    }
+
+
+    // --- Recording ---
+
+    public void recordPlay(int trackId) {
+        record(trackId, PLAY);
+    }
+
+    // Stopped before the end, e.g. by next or by picking another track
+    public void recordSkip(int trackId) {
+        record(trackId, SKIP);
+    }
+
+    public void recordCompletion(int trackId) {
+        record(trackId, COMPLETE);
+    }
+
+    private void record(int trackId, byte type) {
+        if (trackId < 0) return;
+
+        // Counted and queued together, so a compaction sees either both or neither
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            apply(trackId, type, now);
+            if (!pending.offer(new long[] { now, trackId, type })) {
+                System.err.println("[ERROR] Play history writer is behind; an event was not saved.");
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void apply(int trackId, byte type, long epochMillis) {
+        ensureCapacity(trackId);
+        switch (type) {
+            case PLAY -> {
+                plays[trackId]++;
+                lastPlayed[trackId] = Math.max(lastPlayed[trackId], epochMillis);
+                months.computeIfAbsent(monthKey(epochMillis), key -> new MonthTally()).increment(trackId);
+            }
+            case SKIP -> skips[trackId]++;
+            default -> { }     // Completions are logged for later use but not counted yet
+        }
+    }
+
+
+    // --- Queries ---
+
+    public synchronized int getPlayCount(int trackId) {
+        return (trackId >= 0 && trackId < plays.length) ? plays[trackId] : 0;
+    }
+
+    public synchronized int getSkipCount(int trackId) {
+        return (trackId >= 0 && trackId < skips.length) ? skips[trackId] : 0;
+    }
+
+    // Epoch millis of the last play, or 0 if never played
+    public synchronized long getLastPlayed(int trackId) {
+        return (trackId >= 0 && trackId < lastPlayed.length) ? lastPlayed[trackId] : 0;
+    }
+
+    // Ids of the most played tracks of a month, most played first
+    public synchronized int[] getTopTracks(YearMonth month, int limit) {
+        MonthTally tally = months.get(month.getYear() * 100 + month.getMonthValue());
+        return (tally != null) ? tally.top(limit) : new int[0];
+    }
+
+    public int[] getTopTracksThisMonth(int limit) {
+        return getTopTracks(YearMonth.now(zone), limit);
+    }
+
+    private int monthKey(long epochMillis) {
+        YearMonth month = YearMonth.from(Instant.ofEpochMilli(epochMillis).atZone(zone));
+        return month.getYear() * 100 + month.getMonthValue();
+    }
+
+    private void ensureCapacity(int trackId) {
+        if (trackId < plays.length) return;
+
+        int capacity = Math.max(trackId + 1, plays.length * 2);
+        plays = Arrays.copyOf(plays, capacity);
+        skips = Arrays.copyOf(skips, capacity);
+        lastPlayed = Arrays.copyOf(lastPlayed, capacity);
+    }
+
+
+    // --- Writer thread ---
+
+    private void writeLoop() {
+        List<long[]> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+
+            synchronized (logLock) {
+                tryAppend(batch);
+                if (recordsInLog >= COMPACT_EVERY) compact();
+            }
+            batch.clear();
+        }
+    }
+
+    // Runs on exit; whatever the writer hasn't picked up yet is written here
+    private void flushPending() {
+        synchronized (logLock) {
+            List<long[]> batch = new ArrayList<>();
+            pending.drainTo(batch);
+            tryAppend(batch);
+            try {
+                if (log != null) log.force(false);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to write play history: " + e.getMessage());
+            }
+        }
+    }
+
+    private void tryAppend(List<long[]> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            appendToLog(batch);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to write play history: " + e.getMessage());
+            closeLog();
+        }
+    }
+
+    private void appendToLog(List<long[]> batch) throws IOException {
+        if (log == null) openLog();
+
+        for (long[] event : batch) {
+            if (writeBuffer.remaining() < RECORD_BYTES) flushBuffer();
+            writeBuffer.putLong(event[0]).putInt((int) event[1]).put((byte) event[2]);
+        }
+        flushBuffer();
+        recordsInLog += batch.size();
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            log.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    // Continues an existing log of the current generation, or starts a new one
+    private void openLog() throws IOException {
+        Files.createDirectories(LOG_PATH.getParent());
+        long currentGeneration;
+        synchronized (this) {
+            currentGeneration = generation + 1;
+        }
+
+        log = FileChannel.open(LOG_PATH, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() >= HEADER_BYTES && readLogGeneration(log) == currentGeneration) {
+            long records = (log.size() - HEADER_BYTES) / RECORD_BYTES;
+            log.position(HEADER_BYTES + records * RECORD_BYTES);    // Drops a torn last record
+            recordsInLog = (int) records;
+            return;
+        }
+
+        log.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(currentGeneration).flip();
+        log.write(header, 0);
+        log.position(HEADER_BYTES);
+        recordsInLog = 0;
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException e) {
+            // Nothing left to save
+        }
+        log = null;
+    }
+
+    /*
+     *  Folds the log into a new snapshot. The counters are copied under the lock; they include
+     *  every event written or still queued, so the queued ones are taken out with the copy. Only
+     *  the copy is taken under the lock (array copies, no encoding), so a track change recording
+     *  meanwhile isn't held up. The copy is encoded, written to a temp file and moved over the
+     *  old snapshot, and only then is the log started over under the next generation.
+     */
+    private void compact() {
+        Counters counters;
+        List<long[]> covered = new ArrayList<>();
+        synchronized (this) {
+            pending.drainTo(covered);
+            generation++;
+            counters = new Counters(this);
+        }
+        byte[] snapshot = encodeSnapshot(counters);
+
+        Path temp = STATS_PATH.resolveSibling(STATS_PATH.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(STATS_PATH.getParent());
+            Files.write(temp, snapshot);
+            Files.move(temp, STATS_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to compact play history: " + e.getMessage());
+            synchronized (this) {
+                generation--;   // Keep appending to the current log
+            }
+            tryAppend(covered);
+            return;
+        }
+
+        closeLog();
+        try {
+            openLog();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to start a new play history log: " + e.getMessage());
+            closeLog();
+        }
+    }
+
+
+    // --- Loading ---
+
+    private void loadSnapshot() {
+        if (!Files.exists(STATS_PATH)) return;
+
+        try (FileChannel channel = FileChannel.open(STATS_PATH, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != STATS_MAGIC || buffer.getInt() != VERSION) {
+                System.err.println("[ERROR] Play statistics file is not readable; starting from the log.");
+                return;
+            }
+            long storedGeneration = buffer.getLong();
+
+            int trackCount = buffer.getInt();
+            for (int i = 0; i < trackCount; i++) {
+                int id = buffer.getInt();
+                ensureCapacity(id);
+                plays[id] = buffer.getInt();
+                skips[id] = buffer.getInt();
+                lastPlayed[id] = buffer.getLong();
+            }
+
+            int monthCount = buffer.getInt();
+            for (int i = 0; i < monthCount; i++) {
+                int key = buffer.getInt();
+                int entryCount = buffer.getInt();
+                MonthTally tally = new MonthTally();
+                for (int j = 0; j < entryCount; j++) {
+                    tally.add(buffer.getInt(), buffer.getInt());
+                }
+                months.put(key, tally);
+            }
+            generation = storedGeneration;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ERROR] Failed to read play statistics: " + e.getMessage());
+            plays = new int[0];
+            skips = new int[0];
+            lastPlayed = new long[0];
+            months.clear();
+            generation = 0;
+        }
+    }
+
+    // Applies the log written since the snapshot; returns the number of records applied
+    private int replayLog() {
+        if (!Files.exists(LOG_PATH)) return 0;
+
+        try (FileChannel channel = FileChannel.open(LOG_PATH, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || readLogGeneration(channel) <= generation) return 0;
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.position(HEADER_BYTES);
+            int count = 0;
+            while (buffer.remaining() >= RECORD_BYTES) {
+                long epochMillis = buffer.getLong();
+                int trackId = buffer.getInt();
+                byte type = buffer.get();
+                if (trackId >= 0) {
+                    apply(trackId, type, epochMillis);
+                    count++;
+                }
+            }
+            return count;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ERROR] Failed to read play history log: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Generation in the log header, or -1 when the header isn't ours
+    private static long readLogGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != LOG_MAGIC || header.getInt() != VERSION) return -1;
+        return header.getLong();
+    }
+
+    private static byte[] encodeSnapshot(Counters counters) {
+        int[] plays = counters.plays;
+        int[] skips = counters.skips;
+        long[] lastPlayed = counters.lastPlayed;
+
+        int trackCount = 0;
+        for (int id = 0; id < plays.length; id++) {
+            if (plays[id] != 0 || skips[id] != 0) trackCount++;
+        }
+        int size = HEADER_BYTES + 4 + trackCount * 20 + 4;
+        for (MonthTally tally : counters.months.values()) {
+            size += 8 + tally.size * 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(STATS_MAGIC).putInt(VERSION).putLong(counters.generation);
+        buffer.putInt(trackCount);
+        for (int id = 0; id < plays.length; id++) {
+            if (plays[id] == 0 && skips[id] == 0) continue;
+            buffer.putInt(id).putInt(plays[id]).putInt(skips[id]).putLong(lastPlayed[id]);
+        }
+        buffer.putInt(counters.months.size());
+        for (Map.Entry<Integer, MonthTally> month : counters.months.entrySet()) {
+            MonthTally tally = month.getValue();
+            buffer.putInt(month.getKey()).putInt(tally.size);
+            for (int slot = 0; slot < tally.ids.length; slot++) {
+                if (tally.ids[slot] >= 0) buffer.putInt(tally.ids[slot]).putInt(tally.counts[slot]);
+            }
+        }
+        return buffer.array();
+    }
+
+
+    // --- Subclasses ---
+
+    // Copy of the counters for encoding a snapshot outside the lock
+    private static class Counters {
+        final int[] plays;
+        final int[] skips;
+        final long[] lastPlayed;
+        final Map<Integer, MonthTally> months = new TreeMap<>();
+        final long generation;
+
+        // Caller holds the lock of history
+        Counters(PlayHistory history) {
+            plays = history.plays.clone();
+            skips = history.skips.clone();
+            lastPlayed = history.lastPlayed.clone();
+            for (Map.Entry<Integer, MonthTally> month : history.months.entrySet()) {
+                months.put(month.getKey(), month.getValue().copy());
+            }
+            generation = history.generation;
+        }
+    }
+
+    /*
+     *  Plays per track id within one month, in an open-addressing table (ids of -1 are free
+     *  slots). Top lists keep a min-heap of the best `limit` entries, O(n log limit).
+     */
+    private static class MonthTally {
+        private int[] ids = newSlots(16);
+        private int[] counts = new int[16];
+        private int size = 0;
+
+        void increment(int id) {
+            add(id, 1);
+        }
+
+        MonthTally copy() {
+            MonthTally copy = new MonthTally();
+            copy.ids = ids.clone();
+            copy.counts = counts.clone();
+            copy.size = size;
+            return copy;
+        }
+
+        void add(int id, int plays) {
+            if ((size + 1) * 2 > ids.length) rehash(ids.length * 2);
+
+            int mask = ids.length - 1;
+            int slot = mix(id) & mask;
+            while (ids[slot] >= 0 && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (ids[slot] < 0) {
+                ids[slot] = id;
+                size++;
+            }
+            counts[slot] += plays;
+        }
+
+        int[] top(int limit) {
+            int heapSize = 0;
+            int[] heapSlots = new int[Math.max(0, Math.min(limit, size))];
+            if (heapSlots.length == 0) return new int[0];
+
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] < 0) continue;
+                if (heapSize < heapSlots.length) {
+                    heapSlots[heapSize] = slot;
+                    siftUp(heapSlots, heapSize++);
+                } else if (counts[slot] > counts[heapSlots[0]]) {
+                    heapSlots[0] = slot;
+                    siftDown(heapSlots, heapSize);
+                }
+            }
+
+            // Popping the min-heap yields the least played first, so fill from the back
+            int[] result = new int[heapSize];
+            for (int i = heapSize - 1; i >= 0; i--) {
+                result[i] = ids[heapSlots[0]];
+                heapSlots[0] = heapSlots[--heapSize];
+                siftDown(heapSlots, heapSize);
+            }
+            return result;
+        }
+
+        private void siftUp(int[] heap, int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (counts[heap[parent]] <= counts[heap[index]]) return;
+                swap(heap, parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int heapSize) {
+            int index = 0;
+            while (true) {
+                int smallest = index;
+                int left = index * 2 + 1;
+                int right = left + 1;
+                if (left < heapSize && counts[heap[left]] < counts[heap[smallest]]) smallest = left;
+                if (right < heapSize && counts[heap[right]] < counts[heap[smallest]]) smallest = right;
+                if (smallest == index) return;
+                swap(heap, index, smallest);
+                index = smallest;
+            }
+        }
+
+        private void rehash(int capacity) {
+            int[] oldIds = ids;
+            int[] oldCounts = counts;
+            ids = newSlots(capacity);
+            counts = new int[capacity];
+            size = 0;
+            for (int slot = 0; slot < oldIds.length; slot++) {
+                if (oldIds[slot] >= 0) add(oldIds[slot], oldCounts[slot]);
+            }
+        }
+
+        private static int[] newSlots(int capacity) {
+            int[] slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+
+        private static int mix(int id) {
+            return id * 0x9E3779B9 >>> 7;
+        }
+
+        private static void swap(int[] array, int i, int j) {
+            int temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package services;
+
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+
+import java.util.Arrays;
+
+
+/*
+ *  Tracks queued to play next ("up next"), by track id, in play order.
+ *
+ *  Stored in a circular gap buffer: one int array holding the entries with a single run of
+ *  free slots (the gap) between two of them. Inserting or removing at the gap is O(1); an edit
+ *  elsewhere first moves the gap there, shifting only the entries in between. Because the
+ *  array is circular, both ends of the queue sit next to the gap at once, so play-next,
+ *  enqueue and taking the head never shift anything, and a drag-reorder costs the distance
+ *  the entry moves.
+ *
+ *  revisionProperty() changes on every edit, for views that need to refresh.
+ *  FX thread only.
+ */
+public class PlayQueue {
+    private int[] slots = new int[16];
+    private int base = 0;           // Slot of entry 0 when the gap is after it
+    private int gap = 0;            // Entry index the gap sits in front of
+    private int gapLength = 16;
+    private int size = 0;
+
+    private final ReadOnlyIntegerWrapper revision = new ReadOnlyIntegerWrapper(0);
+
+    // --- Getters ---
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        checkIndex(index, size);
+        return slots[slot(index)];
+    }
+
+    // Id at the head of the queue, or -1 when empty
+    public int peek() {
+        return (size > 0) ? get(0) : -1;
+    }
+
+    // Entries in play order
+    public int[] toArray() {
+        int[] trackIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            trackIds[i] = slots[slot(i)];
+        }
+        return trackIds;
+    }
+
+    public ReadOnlyIntegerProperty revisionProperty() {
+        return revision.getReadOnlyProperty();
+    }
+
+
+    // --- Methods ---
+
+    public void playNext(int trackId) {
+        insert(0, trackId);
+    }
+
+    public void enqueue(int trackId) {
+        insert(size, trackId);
+    }
+
+    public void insert(int index, int trackId) {
+        checkIndex(index, size + 1);
+        if (gapLength == 0) grow(size + 1);
+
+        moveGap(index);
+        slots[wrap(base + gap)] = trackId;
+        gap++;
+        gapLength--;
+        size++;
+        changed();
+    }
+
+    public int remove(int index) {
+        checkIndex(index, size);
+
+        moveGap(index + 1);
+        int trackId = slots[wrap(base + index)];
+        gap--;
+        gapLength++;
+        size--;
+        changed();
+        return trackId;
+    }
+
+    // Appends many entries as one edit, e.g. a whole playlist
+    public void enqueueAll(int[] trackIds) {
+        if (trackIds.length == 0) return;
+
+        moveGap(size);
+        if (gapLength < trackIds.length) {
+            grow(size + trackIds.length);
+        }
+        for (int trackId : trackIds) {
+            slots[wrap(base + gap)] = trackId;
+            gap++;
+            gapLength--;
+            size++;
+        }
+        changed();
+    }
+
+    // Replaces the whole queue as one edit
+    public void setAll(int[] trackIds) {
+        base = 0;
+        gap = 0;
+        gapLength = slots.length;
+        size = 0;
+        enqueueAll(trackIds);
+        if (trackIds.length == 0) changed();
+    }
+
+    // Takes the head of the queue, or returns -1 when empty
+    public int poll() {
+        return (size > 0) ? remove(0) : -1;
+    }
+
+    // Moves an entry so that it ends up at index `to`
+    public void move(int from, int to) {
+        checkIndex(from, size);
+        checkIndex(to, size);
+        if (from == to) return;
+
+        int trackId = remove(from);
+        insert(to, trackId);
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        base = 0;
+        gap = 0;
+        gapLength = slots.length;
+        size = 0;
+        changed();
+    }
+
+
+    // --- Gap buffer ---
+
+    private int slot(int index) {
+        return wrap(base + ((index < gap) ? index : index + gapLength));
+    }
+
+    private int wrap(int position) {
+        return (position >= slots.length) ? position - slots.length : position;
+    }
+
+    /*
+     *  Puts the gap in front of entry `target`, shifting entries across it. The gap in front of
+     *  entry 0 and the one after the last entry are the same slots, so the gap can also go
+     *  around through that end when that's the shorter way.
+     */
+    private void moveGap(int target) {
+        if (target == gap) return;
+
+        int direct = Math.abs(target - gap);
+        int around = (target < gap) ? (size - gap) + target : gap + (size - target);
+        if (around < direct) {
+            if (target < gap) {
+                shiftGap(size);
+                base = wrap(base + slots.length - gapLength);   // Same slots, now in front of entry 0
+                gap = 0;
+            } else {
+                shiftGap(0);
+                base = wrap(base + gapLength);                  // Same slots, now after the last entry
+                gap = size;
+            }
+        }
+        shiftGap(target);
+    }
+
+    private void shiftGap(int target) {
+        if (target < gap) {
+            for (int i = gap - 1; i >= target; i--) {
+                slots[wrap(base + i + gapLength)] = slots[wrap(base + i)];
+            }
+        } else {
+            for (int i = gap; i < target; i++) {
+                slots[wrap(base + i)] = slots[wrap(base + i + gapLength)];
+            }
+        }
+        gap = target;
+    }
+
+    private void grow(int minCapacity) {
+        int[] entries = toArray();
+        slots = Arrays.copyOf(entries, Math.max(16, Math.max(minCapacity, size * 2)));
+        base = 0;
+        gap = size;
+        gapLength = slots.length - size;
+    }
+
+    private void changed() {
+        revision.set(revision.get() + 1);
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Queue index " + index + " out of bounds for " + bound);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+
+/*
+ *  Downloads a playlist one video at a time, with the queue kept on the Java side.
+ *
+ *  ->  The playlist is expanded by running the worker with --extract, which prints one
+ *      "VIDEO <url>" line per entry; the videos are shuffled into the DownloadQueueJournal
+ *  ->  Each video is then a DownloadJob running the worker with --video, shown in the Downloads
+ *      window like any other; the journal records it as completed once the job is DONE
+ *  ->  With one worker (the default) videos go one at a time, pausing between them like a person
+ *      would (politeDelayMillis), as the Python loop did. With more, that many workers download
+ *      side by side and a TokenBucket paces their starts to the downloads_per_hour setting
+ *  ->  A failed video goes to the back of the queue and is retried after a jittered exponential
+ *      backoff while the others carry on. After MAX_ATTEMPTS failures it's left queued for the
+ *      next start
+ *  ->  At most one run at a time, across JukeBox instances too: an OS lock on
+ *      data/playlist_downloader.lock is held for the whole run. The OS drops it if the holder
+ *      dies, so there's never a stale lock to clean up
+ *
+ *  A queue left by the last session is resumed with start(null).
+ */
+class PlaylistDownloader {
+    private static final Path JOURNAL_PATH = Paths.get("data", "download_queue.journal");
+    private static final Path LEGACY_QUEUE_PATH = Paths.get("data", "download_queue.csv");
+    private static final Path LOCK_PATH = Paths.get("data", "playlist_downloader.lock");
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    private static final double PACING_JITTER = 0.5;    // Up to half a token interval
+
+    private final DownloadManager downloadManager;
+    private final Supplier<List<String>> workerCommand;
+    private final IntSupplier workerCount;
+    private final IntSupplier downloadsPerHour;
+    private final String outputDir;
+    private final DownloadQueueJournal journal = new DownloadQueueJournal(JOURNAL_PATH);
+    private final Random random = new Random();
+
+    // Guarded by this
+    private Thread runner;
+    private final Set<DownloadJob> currentJobs = new HashSet<>();
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    // Guarded by queueLock; which videos are taken or waiting out a backoff in the current run
+    private final Object queueLock = new Object();
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, Retry> retries = new HashMap<>();
+
+    PlaylistDownloader(DownloadManager downloadManager, Supplier<List<String>> workerCommand,
+                       IntSupplier workerCount, IntSupplier downloadsPerHour, String outputDir) {
+        this.downloadManager = downloadManager;
+        this.workerCommand = workerCommand;
+        this.workerCount = workerCount;
+        this.downloadsPerHour = downloadsPerHour;
+        this.outputDir = outputDir;
+        importLegacyQueue();
+    }
+
+    // Videos still to download
+    int getPendingCount() {
+        return journal.size();
+    }
+
+    /*
+     *  Starts downloading a playlist, or resumes the saved queue when playlistUrl is null.
+     *  Returns false when a playlist download is already running, here or in another instance.
+     */
+    synchronized boolean start(String playlistUrl) {
+        if (runner != null || !tryLock()) return false;
+
+        runner = Thread.ofVirtual().name("playlist-downloader").start(() -> run(playlistUrl));
+        return true;
+    }
+
+    // Stops the run and forgets the queued videos
+    void cancel() {
+        synchronized (this) {
+            if (runner != null) runner.interrupt();
+            currentJobs.forEach(DownloadJob::cancel);
+        }
+        try {
+            journal.clear();
+            System.out.println("[INFO] Playlist download canceled and queue cleared.");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to clear download queue: " + e.getMessage());
+        }
+    }
+
+
+    // --- Runner ---
+
+    private void run(String playlistUrl) {
+        List<Thread> workers = new ArrayList<>();
+        try {
+            if (playlistUrl != null) {
+                List<String> videos = extract(playlistUrl);
+                if (videos.isEmpty()) {
+                    System.out.println("[ERROR] No songs found. Not starting download.");
+                    return;
+                }
+                if (Thread.currentThread().isInterrupted()) return;
+                Collections.shuffle(videos, random);
+                journal.enqueueAll(videos);
+            }
+
+            int count = workerCount.getAsInt();
+            TokenBucket pacing = (count > 1)
+                ? new TokenBucket(downloadsPerHour.getAsInt() / 3600.0, count, PACING_JITTER)
+                : null;
+            synchronized (queueLock) {
+                inFlight.clear();
+                retries.clear();
+            }
+
+            System.out.println("[INFO] Starting playlist download: " + journal.size() + " track(s), "
+                               + count + " worker(s)");
+            for (int i = 0; i < count; i++) {
+                workers.add(Thread.ofVirtual().name("playlist-worker-" + i).start(() -> work(pacing)));
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            if (journal.isEmpty()) {
+                System.out.println("[INFO] All songs downloaded.");
+            } else {
+                System.out.println("[WARN] " + journal.size() + " track(s) kept failing and stay queued for next time.");
+            }
+        } catch (InterruptedException e) {
+            workers.forEach(Thread::interrupt);
+            System.out.println("[INFO] Playlist download stopped.");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Download queue journal failed, stopping: " + e.getMessage());
+        } finally {
+            // Workers still cancelling their jobs must be gone before another run may start
+            awaitWorkers(workers);
+            synchronized (this) {
+                runner = null;
+                currentJobs.clear();
+                unlock();
+            }
+        }
+    }
+
+    // Joins the workers, riding out further interrupts and passing them on once they're done
+    private static void awaitWorkers(List<Thread> workers) {
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // One worker: takes videos off the queue until none is left to try in this run
+    private void work(TokenBucket pacing) {
+        int songIndex = 0;
+        boolean pause = false;
+        try {
+            String videoUrl;
+            while ((videoUrl = takeNext()) != null) {
+                if (pacing != null) {
+                    pacing.acquire();
+                } else if (pause) {
+                    Thread.sleep(politeDelayMillis(songIndex++));
+                }
+
+                boolean downloaded = download(videoUrl);
+                if (downloaded) {
+                    completed(videoUrl);
+                } else {
+                    retryLater(videoUrl);
+                }
+                pause = downloaded;
+            }
+        } catch (InterruptedException e) {
+            // Cancelled; the run is over
+        } catch (IOException e) {
+            System.err.println("[ERROR] Download queue journal failed, worker stopping: " + e.getMessage());
+        }
+    }
+
+    /*
+     *  The first queued video no other worker has and that isn't waiting out a backoff. Blocks
+     *  while the only ones left are in flight or backing off, since those may come back.
+     *  Returns null when nothing is left to try in this run.
+     */
+    private String takeNext() throws InterruptedException {
+        synchronized (queueLock) {
+            while (true) {
+                long now = System.nanoTime();
+                long waitNanos = Long.MAX_VALUE;
+                for (String videoUrl : journal.getPending()) {
+                    if (inFlight.contains(videoUrl)) continue;
+
+                    Retry retry = retries.get(videoUrl);
+                    if (retry != null) {
+                        if (retry.failures >= MAX_ATTEMPTS) continue;      // Given up on for this run
+                        if (retry.notBeforeNanos - now > 0) {
+                            waitNanos = Math.min(waitNanos, retry.notBeforeNanos - now);
+                            continue;
+                        }
+                    }
+                    inFlight.add(videoUrl);
+                    return videoUrl;
+                }
+
+                if (waitNanos == Long.MAX_VALUE) {
+                    if (inFlight.isEmpty()) return null;
+                    queueLock.wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(queueLock, waitNanos);
+                }
+            }
+        }
+    }
+
+    private void completed(String videoUrl) throws IOException {
+        synchronized (queueLock) {
+            inFlight.remove(videoUrl);
+            retries.remove(videoUrl);
+            journal.complete(videoUrl);
+            queueLock.notifyAll();
+        }
+    }
+
+    // Puts a failed video at the back of the queue, to be tried again after a backoff
+    private void retryLater(String videoUrl) throws IOException {
+        synchronized (queueLock) {
+            inFlight.remove(videoUrl);
+            Retry retry = retries.computeIfAbsent(videoUrl, url -> new Retry());
+            retry.failures++;
+            journal.requeue(videoUrl);
+
+            if (retry.failures >= MAX_ATTEMPTS) {
+                System.out.println("[SKIPPED] Max retries exceeded, kept for next time: " + videoUrl);
+            } else {
+                long delay = backoffMillis(retry.failures);
+                retry.notBeforeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                System.out.printf("[ERROR] Failed (attempt %d) -- retrying in %.1fs: %s%n",
+                                  retry.failures, delay / 1000.0, videoUrl);
+            }
+            queueLock.notifyAll();
+        }
+    }
+
+    // Video URLs of a playlist, empty when the worker found none or failed
+    private List<String> extract(String playlistUrl) throws InterruptedException {
+        List<String> videos = Collections.synchronizedList(new ArrayList<>());
+        List<String> command = new ArrayList<>(workerCommand.get());
+        command.addAll(List.of("--extract", playlistUrl));
+
+        DownloadJob job = downloadManager.newJob(DownloadJob.Kind.PLAYLIST, playlistUrl, command, null);
+        job.setLineListener(line -> {
+            if (line.startsWith("VIDEO ")) videos.add(line.substring(6).strip());
+        });
+        runJob(job);
+        return (job.getState() == DownloadJob.State.DONE) ? new ArrayList<>(videos) : new ArrayList<>();
+    }
+
+    // Downloads one video; false when it failed
+    private boolean download(String videoUrl) throws InterruptedException {
+        List<String> command = new ArrayList<>(workerCommand.get());
+        command.addAll(List.of("--video", videoUrl, "--output-dir", outputDir));
+
+        DownloadJob job = downloadManager.newJob(DownloadJob.Kind.SONG, videoUrl, command, null);
+        runJob(job);
+        if (job.getState() == DownloadJob.State.CANCELLED) throw new InterruptedException();
+        return job.getState() == DownloadJob.State.DONE;
+    }
+
+    private void runJob(DownloadJob job) throws InterruptedException {
+        synchronized (this) {
+            currentJobs.add(job);
+        }
+        downloadManager.submit(job);
+        try {
+            job.awaitFinished();
+        } catch (InterruptedException e) {
+            job.cancel();
+            throw e;
+        } finally {
+            synchronized (this) {
+                currentJobs.remove(job);
+            }
+        }
+    }
+
+    // Exponential, capped, with "equal jitter": half the delay fixed, half random
+    private long backoffMillis(int failures) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, 2000L << failures);
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    /*
+     *  Pause after the songIndex-th video (0-based), in milliseconds, so a long playlist doesn't
+     *  look like a bot:
+     *  ->  90 to 150 seconds normally
+     *  ->  Every 10th song, a long break of 4 to 6 minutes instead
+     *  ->  Every 3 to 7 songs, 30 to 90 seconds more
+     *  ->  Now and then (5%), another 60 to 120 seconds
+     */
+    private long politeDelayMillis(int songIndex) {
+        if (songIndex % 10 == 0 && songIndex != 0) return (long) (uniform(240, 360) * 1000);
+
+        double delay = uniform(90, 150);
+        if (songIndex % (3 + random.nextInt(5)) == 0 && songIndex != 0) delay += uniform(30, 90);
+        if (random.nextDouble() < 0.05) delay += uniform(60, 120);
+        return (long) (delay * 1000);
+    }
+
+    private double uniform(double min, double max) {
+        return min + random.nextDouble() * (max - min);
+    }
+
+
+    // --- Helpers ---
+
+    // Caller holds the lock
+    private boolean tryLock() {
+        try {
+            if (lockChannel == null) {
+                Files.createDirectories(LOCK_PATH.getParent());
+                lockChannel = FileChannel.open(LOCK_PATH, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            lock = lockChannel.tryLock();
+            return lock != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to lock " + LOCK_PATH + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Caller holds the lock
+    private void unlock() {
+        if (lock == null) return;
+
+        try {
+            lock.release();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to unlock " + LOCK_PATH + ": " + e.getMessage());
+        }
+        lock = null;
+    }
+
+    // The Python downloader kept its queue as one CSV row; it's moved into the journal once
+    private void importLegacyQueue() {
+        if (!Files.exists(LEGACY_QUEUE_PATH)) return;
+
+        try {
+            List<String> videos = new ArrayList<>();
+            for (String line : Files.readAllLines(LEGACY_QUEUE_PATH, StandardCharsets.UTF_8)) {
+                for (String field : line.split(",")) {
+                    String video = field.strip().replace("\"", "");
+                    if (!video.isEmpty()) videos.add(video);
+                }
+            }
+            journal.enqueueAll(videos);
+            Files.delete(LEGACY_QUEUE_PATH);
+            System.out.println("[INFO] Moved " + videos.size() + " queued video(s) from " + LEGACY_QUEUE_PATH + ".");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to import " + LEGACY_QUEUE_PATH + ": " + e.getMessage());
+        }
+    }
+
+
+    // --- Subclasses ---
+
+    // Guarded by queueLock
+    private static class Retry {
+        int failures = 0;
+        long notBeforeNanos;
+    }
+}
@@ -0,0 +1,266 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import models.Track;
+
+
+/*
+ *  Playlists saved under data/playlists, one file each.
+ *
+ *  Layout (big-endian):
+ *      int magic, int version, string name, int count, count x int trackId
+ *  where the name is an int byte length followed by UTF-8 bytes.
+ *
+ *  ->  Entries are library index ids, not paths, so a playlist is 4 bytes per track and
+ *      survives library rescans; ids of tracks that left the library are skipped on playback
+ *  ->  Files are memory-mapped and the ids bulk-copied into an int[]; opening a playlist
+ *      creates no Track or File objects
+ *  ->  M3U/M3U8 import and export stream one line at a time; import maps each path to its
+ *      library id, export writes the library path of each id
+ */
+public class PlaylistService {
+    private static final PlaylistService instance = new PlaylistService();
+
+    private static final Path PLAYLIST_FOLDER = Paths.get("data", "playlists");
+    private static final String EXTENSION = ".jbpl";
+    private static final int MAGIC = 0x4A424C53;    // "JBLS"
+    private static final int VERSION = 1;
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    private PlaylistService() {}
+
+    public static PlaylistService getInstance() {
+        return instance;
+    }
+
+    // Result of an M3U import: entries found in the library, and entries that weren't
+    public static class ImportResult {
+        private final int imported;
+        private final int skipped;
+
+        ImportResult(int imported, int skipped) {
+            this.imported = imported;
+            this.skipped = skipped;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+
+    // --- Getters ---
+
+    // Names of the saved playlists, sorted; only the file headers are read
+    public List<String> getPlaylistNames() {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(PLAYLIST_FOLDER)) return names;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(PLAYLIST_FOLDER, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 8 + 4 + 1024));
+                    readFully(channel, header);
+                    header.flip();
+                    if (header.remaining() >= 12 && header.getInt() == MAGIC && header.getInt() == VERSION) {
+                        names.add(getString(header));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("[ERROR] Skipping unreadable playlist " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to list playlists: " + e.getMessage());
+        }
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+    // Track ids of a playlist, in order
+    public int[] loadTrackIds(String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileOf(name), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a playlist file");
+            }
+            getString(buffer);
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 4) throw new IOException("Playlist file is truncated");
+
+            int[] trackIds = new int[count];
+            buffer.asIntBuffer().get(trackIds);
+            return trackIds;
+        }
+    }
+
+    public boolean exists(String name) {
+        return Files.exists(fileOf(name));
+    }
+
+
+    // --- Methods ---
+
+    // Creates or replaces a playlist; written to a temp file first so a crash can't leave half of it
+    public void save(String name, int[] trackIds) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + nameBytes.length + 4 + trackIds.length * 4);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nameBytes.length).put(nameBytes).putInt(trackIds.length);
+        buffer.asIntBuffer().put(trackIds);
+
+        Files.createDirectories(PLAYLIST_FOLDER);
+        Path file = fileOf(name);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void addTracks(String name, int... trackIds) throws IOException {
+        int[] existing = exists(name) ? loadTrackIds(name) : new int[0];
+        int[] combined = Arrays.copyOf(existing, existing.length + trackIds.length);
+        System.arraycopy(trackIds, 0, combined, existing.length, trackIds.length);
+        save(name, combined);
+    }
+
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(fileOf(name));
+    }
+
+    /*
+     *  Reads an M3U/M3U8 file line by line into a playlist of the given name. Comment lines
+     *  (#EXTM3U, #EXTINF...) are ignored; relative entries are resolved against the playlist's
+     *  folder and file: URIs are accepted. The charset is picked as exportM3u() picks it (UTF-8
+     *  for .m3u8, the platform charset for .m3u), except that a UTF-8 byte order mark always
+     *  means UTF-8. Undecodable bytes are replaced rather than failing the import.
+     */
+    public ImportResult importM3u(Path m3uFile, String name) throws IOException {
+        Path folder = m3uFile.toAbsolutePath().getParent();
+        TrackService trackService = TrackService.getInstance();
+
+        int[] trackIds = new int[256];
+        int count = 0;
+        int skipped = 0;
+        try (BufferedInputStream input = new BufferedInputStream(Files.newInputStream(m3uFile))) {
+            Charset charset = charsetOf(m3uFile);
+            input.mark(UTF8_BOM.length);
+            if (Arrays.equals(input.readNBytes(UTF8_BOM.length), UTF8_BOM)) {
+                charset = StandardCharsets.UTF_8;
+            } else {
+                input.reset();
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input,
+                charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                                    .onUnmappableCharacter(CodingErrorAction.REPLACE)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                Path entry = resolveEntry(folder, line);
+                int trackId = (entry != null) ? trackService.getTrackIdByPath(entry) : -1;
+                if (trackId < 0) {
+                    skipped++;
+                    continue;
+                }
+                if (count == trackIds.length) trackIds = Arrays.copyOf(trackIds, count * 2);
+                trackIds[count++] = trackId;
+            }
+        }
+
+        save(name, Arrays.copyOf(trackIds, count));
+        System.out.println("[INFO] Imported playlist " + name + ": " + count + " track(s), " + skipped + " not in library.");
+        return new ImportResult(count, skipped);
+    }
+
+    /*
+     *  Writes a playlist as extended M3U with absolute paths; .m3u8 targets are UTF-8 and .m3u
+     *  targets use the platform charset, as players expect. Ids no longer in the library are left
+     *  out. Returns the number of tracks written. FX thread only (reads the track list).
+     */
+    public int exportM3u(String name, Path target) throws IOException {
+        int[] trackIds = loadTrackIds(name);
+        int written = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(target), charsetOf(target)))) {
+            writer.write("#EXTM3U");
+            writer.newLine();
+            for (int trackId : trackIds) {
+                Track track = TrackService.getInstance().getTrackById(trackId);
+                if (track == null) continue;
+
+                long seconds = (track.getDurationMillis() > 0) ? track.getDurationMillis() / 1000 : -1;
+                writer.write("#EXTINF:" + seconds + "," + track.getDisplayName());
+                writer.newLine();
+                writer.write(track.getFile().getAbsolutePath());
+                writer.newLine();
+                written++;
+            }
+        }
+        return written;
+    }
+
+
+    // --- Helpers ---
+
+    // .m3u8 is UTF-8 by definition; plain .m3u is whatever the platform's players write
+    private static Charset charsetOf(Path m3uFile) {
+        return m3uFile.getFileName().toString().toLowerCase().endsWith(".m3u8")
+             ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+    }
+
+    // File names keep the readable name, minus characters that aren't allowed in them
+    private Path fileOf(String name) {
+        String safeName = name.strip().replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+        return PLAYLIST_FOLDER.resolve(safeName + EXTENSION);
+    }
+
+    private static Path resolveEntry(Path folder, String entry) {
+        try {
+            if (entry.regionMatches(true, 0, "file:", 0, 5)) return Paths.get(URI.create(entry));
+            if (entry.contains("://")) return null;     // Streams and web links aren't library tracks
+
+            Path path = Paths.get(entry);
+            return path.isAbsolute() ? path : folder.resolve(path);
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) { }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
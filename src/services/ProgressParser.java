@@ -0,0 +1,91 @@
+package services;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/*
+ *  Turns downloader output lines into DownloadProgress, one line at a time.
+ *
+ *  ->  yt-dlp:  "[download]  42.3% of ~3.45MiB at  512.00KiB/s ETA 00:04"
+ *  ->  ffmpeg:  "Duration: 00:03:45.12, ..." once, then
+ *               "size=  1024kB time=00:01:23.45 bitrate= 128.0kbits/s speed=12.3x"
+ *      ffmpeg doesn't print a percentage, so it's worked out from the duration seen earlier
+ *  ->  "[ExtractAudio]" lines mark yt-dlp handing the file to ffmpeg
+ *
+ *  One parser per job, since the ffmpeg duration carries over between lines. Lines that say
+ *  nothing about progress return null.
+ */
+class ProgressParser {
+    private static final Pattern YTDLP_PERCENT = Pattern.compile("^\\[download\\]\\s+(\\d+(?:\\.\\d+)?)%");
+    private static final Pattern YTDLP_RATE = Pattern.compile("\\bat\\s+(\\d+(?:\\.\\d+)?)\\s*([KMGT]?)(i?)B/s");
+    private static final Pattern YTDLP_ETA = Pattern.compile("\\bETA\\s+((?:\\d+:)*\\d+)");
+    private static final Pattern FFMPEG_DURATION = Pattern.compile("Duration:\\s*(\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+    private static final Pattern FFMPEG_TIME = Pattern.compile("time=\\s*(\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+    private static final Pattern FFMPEG_SPEED = Pattern.compile("speed=\\s*(\\d+(?:\\.\\d+)?)x");
+
+    private double durationSeconds = Double.NaN;     // Of the file ffmpeg is converting
+
+    DownloadProgress parse(String line) {
+        line = line.strip();
+
+        Matcher percent = YTDLP_PERCENT.matcher(line);
+        if (percent.find()) {
+            return new DownloadProgress("Downloading", Double.parseDouble(percent.group(1)),
+                                        parseRate(line), Double.NaN, parseEta(line));
+        }
+
+        if (line.startsWith("[ExtractAudio]")) {
+            return new DownloadProgress("Converting", Double.NaN, Double.NaN, Double.NaN, -1);
+        }
+
+        Matcher duration = FFMPEG_DURATION.matcher(line);
+        if (duration.find()) {
+            durationSeconds = seconds(duration);
+            return null;
+        }
+
+        Matcher time = FFMPEG_TIME.matcher(line);
+        if (time.find()) {
+            double done = seconds(time);
+            Matcher speed = FFMPEG_SPEED.matcher(line);
+            double factor = speed.find() ? Double.parseDouble(speed.group(1)) : Double.NaN;
+
+            double percentDone = Double.NaN;
+            long eta = -1;
+            if (durationSeconds > 0) {
+                percentDone = Math.min(100, done / durationSeconds * 100);
+                if (factor > 0) eta = Math.round(Math.max(0, durationSeconds - done) / factor);
+            }
+            return new DownloadProgress("Converting", percentDone, Double.NaN, factor, eta);
+        }
+        return null;
+    }
+
+    private static double parseRate(String line) {
+        Matcher rate = YTDLP_RATE.matcher(line);
+        if (!rate.find()) return Double.NaN;
+
+        int power = " KMGT".indexOf(rate.group(2).isEmpty() ? ' ' : rate.group(2).charAt(0));
+        double base = rate.group(3).isEmpty() ? 1000 : 1024;
+        return Double.parseDouble(rate.group(1)) * Math.pow(base, power);
+    }
+
+    // "SS", "MM:SS" or "HH:MM:SS"
+    private static long parseEta(String line) {
+        Matcher eta = YTDLP_ETA.matcher(line);
+        if (!eta.find()) return -1;
+
+        long seconds = 0;
+        for (String part : eta.group(1).split(":")) {
+            seconds = seconds * 60 + Long.parseLong(part);
+        }
+        return seconds;
+    }
+
+    private static double seconds(Matcher clock) {
+        return Integer.parseInt(clock.group(1)) * 3600
+             + Integer.parseInt(clock.group(2)) * 60
+             + Double.parseDouble(clock.group(3));
+    }
+}
@@ -0,0 +1,194 @@
+package services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import models.Track;
+
+
+/*
+ *  In-memory inverted index over the library for instant search.
+ *
+ *  ->  Title, artist, album and file name are split into lowercase, accent-free tokens
+ *  ->  Every token maps to a sorted int[] posting list of track ids, kept in a TreeMap so a
+ *      query token matches every indexed token it is a prefix of ("beat" -> "beatles")
+ *  ->  A query matches tracks containing all of its tokens; hits are counted in a scratch
+ *      array indexed by track id, so no boxing or per-query sets are involved
+ *  ->  Tracks are added and removed incrementally as the library changes
+ *
+ *  Not thread-safe; TrackService only touches it on the FX thread.
+ */
+public class SearchIndex {
+    private final TreeMap<String, Postings> postingsByToken = new TreeMap<>();
+    private Track[] tracksById = new Track[1024];
+    private int trackCount = 0;
+
+    // Scratch space for queries: hit counters per track id and the ids that were touched
+    private int[] hitCounts = new int[1024];
+    private final Postings touchedIds = new Postings();
+
+    public void add(Track track) {
+        int id = track.getId();
+        ensureCapacity(id);
+        if (tracksById[id] != null) remove(tracksById[id]);
+
+        tracksById[id] = track;
+        trackCount++;
+        for (String token : tokenize(track)) {
+            postingsByToken.computeIfAbsent(token, key -> new Postings()).insert(id);
+        }
+    }
+
+    public void remove(Track track) {
+        int id = track.getId();
+        if (id >= tracksById.length || tracksById[id] == null) return;
+
+        // Tokens come from the indexed instance; the caller's copy may carry newer tags
+        for (String token : tokenize(tracksById[id])) {
+            Postings postings = postingsByToken.get(token);
+            if (postings != null && postings.delete(id) && postings.size == 0) {
+                postingsByToken.remove(token);
+            }
+        }
+        tracksById[id] = null;
+        trackCount--;
+    }
+
+    public void clear() {
+        postingsByToken.clear();
+        Arrays.fill(tracksById, null);
+        trackCount = 0;
+    }
+
+    public int size() {
+        return trackCount;
+    }
+
+    /*
+     *  Returns the ids of all tracks that contain every token of the query (each token as a
+     *  prefix), in ascending id order. A blank query returns an empty array.
+     */
+    public int[] search(String query) {
+        List<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty()) return new int[0];
+
+        touchedIds.size = 0;
+        for (int round = 0; round < queryTokens.size(); round++) {
+            String token = queryTokens.get(round);
+            NavigableMap<String, Postings> matches =
+                postingsByToken.subMap(token, true, token + Character.MAX_VALUE, false);
+
+            // A track counts once per query token, even if several of its words share the prefix
+            for (Map.Entry<String, Postings> match : matches.entrySet()) {
+                Postings postings = match.getValue();
+                for (int i = 0; i < postings.size; i++) {
+                    int id = postings.ids[i];
+                    if (hitCounts[id] == round) {
+                        if (round == 0) touchedIds.append(id);
+                        hitCounts[id] = round + 1;
+                    }
+                }
+            }
+        }
+
+        int required = queryTokens.size();
+        int resultCount = 0;
+        int[] results = new int[touchedIds.size];
+        for (int i = 0; i < touchedIds.size; i++) {
+            int id = touchedIds.ids[i];
+            if (hitCounts[id] == required) results[resultCount++] = id;
+            hitCounts[id] = 0;
+        }
+        results = Arrays.copyOf(results, resultCount);
+        Arrays.sort(results);
+        return results;
+    }
+
+    public Track getTrack(int id) {
+        return (id >= 0 && id < tracksById.length) ? tracksById[id] : null;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < tracksById.length) return;
+
+        int capacity = Math.max(id + 1, tracksById.length * 2);
+        tracksById = Arrays.copyOf(tracksById, capacity);
+        hitCounts = Arrays.copyOf(hitCounts, capacity);
+    }
+
+    private static List<String> tokenize(Track track) {
+        String fileName = track.getFile().getName();
+        int extension = fileName.lastIndexOf('.');
+        if (extension > 0) fileName = fileName.substring(0, extension);
+
+        List<String> tokens = tokenize(track.getTitle() + ' ' + track.getArtist() + ' '
+                                       + track.getAlbum() + ' ' + fileName);
+        return new ArrayList<>(new LinkedHashSet<>(tokens));
+    }
+
+    // Lowercase letter/digit runs with diacritics stripped ("Beyoncé" -> "beyonce")
+    static List<String> tokenize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) tokens.add(token.toString());
+        return tokens;
+    }
+
+
+    // --- Subclasses ---
+
+    // Growable sorted int array; ids are mostly added in increasing order, which is an append
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void append(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        void insert(int id) {
+            if (size == 0 || ids[size - 1] < id) {
+                append(id);
+                return;
+            }
+
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) return;  // Already present
+            position = -position - 1;
+
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        boolean delete(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return false;
+
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+}
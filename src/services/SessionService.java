@@ -0,0 +1,279 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javafx.application.Platform;
+
+
+/*
+ *  What was playing when the app last closed: the track and position in it, the up-next queue,
+ *  and the loop and shuffle modes. Kept in data/session.json and data/session_queue.bin and read
+ *  back at startup.
+ *
+ *  ->  Setters only update memory and mark the session dirty; a writer thread saves at most
+ *      once per SAVE_DELAY_MILLIS, so position ticks (several a second) never reach the disk
+ *      one by one
+ *  ->  The queue is kept apart from the rest: queue edits only bump a revision, and the queue
+ *      is copied (on the FX thread, which owns it) and written only when that revision moved
+ *      since the last save, so position saves stay a few bytes however long the queue
+ *  ->  Saves go through a temp file and an atomic move, so a crash mid-write keeps the last
+ *      complete session
+ *  ->  saveNow() writes everything when the app closes; a shutdown hook still writes whatever
+ *      is dirty on other exits, with the queue as of its last copy
+ *
+ *  Queue file:  int magic, int version, int count, count x int trackId (big-endian)
+ */
+public class SessionService {
+    private static final Path SESSION_PATH = Paths.get("data", "session.json");
+    private static final Path QUEUE_PATH = Paths.get("data", "session_queue.bin");
+    private static final int QUEUE_MAGIC = 0x4A425351;    // "JBSQ"
+    private static final int QUEUE_VERSION = 1;
+    private static final long SAVE_DELAY_MILLIS = 2000;
+
+    private static final SessionService instance = new SessionService();   // After the constants above
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "session-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object fileLock = new Object();     // Writer thread, FX thread on close and shutdown hook
+    private PlayQueue playQueue;                      // FX thread only
+
+    // Guarded by this
+    private int trackId = -1;
+    private int resumeTrackId = -1;
+    private long positionMillis = 0;
+    private String loopMode = "";
+    private String shuffleMode = "";
+    private boolean dirty = false;
+    private boolean saveScheduled = false;
+
+    // Guarded by this; queue is the copy taken at copiedQueueRevision and is never modified
+    private int[] queue = new int[0];
+    private int queueRevision = 0;
+    private int copiedQueueRevision = 0;
+    private int savedQueueRevision = 0;
+    private boolean queueCopyRequested = false;
+
+    private SessionService() {
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveIfDirty));
+    }
+
+    public static SessionService getInstance() {
+        return instance;
+    }
+
+
+    // --- Getters ---
+
+    // Track the last session ended on, or -1 when there's none
+    public synchronized int getTrackId() {
+        return trackId;
+    }
+
+    // Library track playback continues after once the queue runs out, or -1
+    public synchronized int getResumeTrackId() {
+        return resumeTrackId;
+    }
+
+    public synchronized long getPositionMillis() {
+        return positionMillis;
+    }
+
+    // The queue as last copied; at startup, the saved one
+    public synchronized int[] getQueue() {
+        return queue.clone();
+    }
+
+    // Mode names as saved by the player, or "" when unknown
+    public synchronized String getLoopMode() {
+        return loopMode;
+    }
+
+    public synchronized String getShuffleMode() {
+        return shuffleMode;
+    }
+
+
+    // --- Setters ---
+
+    // A new track starts at the beginning
+    public synchronized void setTrack(int trackId, int resumeTrackId) {
+        if (trackId == this.trackId && resumeTrackId == this.resumeTrackId) return;
+        this.trackId = trackId;
+        this.resumeTrackId = resumeTrackId;
+        this.positionMillis = 0;
+        markDirty();
+    }
+
+    // Called on every position tick; only whole seconds are worth a save
+    public synchronized void setPosition(long positionMillis) {
+        if (positionMillis / 1000 == this.positionMillis / 1000) {
+            this.positionMillis = positionMillis;
+            return;
+        }
+        this.positionMillis = positionMillis;
+        markDirty();
+    }
+
+    public synchronized void setModes(String loopMode, String shuffleMode) {
+        if (loopMode.equals(this.loopMode) && shuffleMode.equals(this.shuffleMode)) return;
+        this.loopMode = loopMode;
+        this.shuffleMode = shuffleMode;
+        markDirty();
+    }
+
+    // FX thread; from now on edits of the queue are saved with the session
+    public void watchQueue(PlayQueue queue) {
+        playQueue = queue;
+        queue.revisionProperty().addListener((obs, oldRevision, newRevision) -> queueChanged());
+    }
+
+
+    // --- Persistence ---
+
+    // FX thread, when the app closes: copies the queue if it changed and writes everything now
+    public void saveNow() {
+        copyQueue();
+        saveIfDirty();
+        saveQueueIfChanged();
+    }
+
+    private synchronized void queueChanged() {
+        queueRevision++;
+        markDirty();
+    }
+
+    // Caller holds the lock
+    private void markDirty() {
+        dirty = true;
+        if (saveScheduled) return;
+
+        saveScheduled = true;
+        writer.schedule(this::saveIfDirty, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void saveIfDirty() {
+        String content;
+        synchronized (this) {
+            saveScheduled = false;
+            if (!dirty) return;
+            dirty = false;
+            content = toJson().toString();
+
+            // The queue is only read on the FX thread; it's saved once the copy is back
+            if (queueRevision != copiedQueueRevision && playQueue != null && !queueCopyRequested) {
+                queueCopyRequested = true;
+                Platform.runLater(() -> {
+                    copyQueue();
+                    writer.execute(this::saveQueueIfChanged);
+                });
+            }
+        }
+
+        writeAtomically(SESSION_PATH, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // FX thread
+    private void copyQueue() {
+        if (playQueue == null) return;
+
+        synchronized (this) {
+            queueCopyRequested = false;
+            if (queueRevision == copiedQueueRevision) return;
+            queue = playQueue.toArray();
+            copiedQueueRevision = queueRevision;
+        }
+    }
+
+    private void saveQueueIfChanged() {
+        int[] trackIds;
+        int revision;
+        synchronized (this) {
+            if (copiedQueueRevision == savedQueueRevision) return;
+            trackIds = queue;
+            revision = copiedQueueRevision;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + trackIds.length * 4);
+        buffer.putInt(QUEUE_MAGIC).putInt(QUEUE_VERSION).putInt(trackIds.length);
+        buffer.asIntBuffer().put(trackIds);
+        if (!writeAtomically(QUEUE_PATH, buffer.array())) return;
+
+        synchronized (this) {
+            savedQueueRevision = Math.max(savedQueueRevision, revision);
+        }
+    }
+
+    // Returns false when the file couldn't be written
+    private boolean writeAtomically(Path path, byte[] content) {
+        synchronized (fileLock) {
+            try {
+                Files.createDirectories(path.getParent());
+                Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+                Files.write(temp, content);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to save session: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private JSONObject toJson() {
+        JSONObject session = new JSONObject();
+        session.put("track_id", trackId);
+        session.put("resume_track_id", resumeTrackId);
+        session.put("position_ms", positionMillis);
+        session.put("loop_mode", loopMode);
+        session.put("shuffle_mode", shuffleMode);
+        return session;
+    }
+
+    private synchronized void load() {
+        if (Files.exists(SESSION_PATH)) {
+            try {
+                JSONObject session = new JSONObject(Files.readString(SESSION_PATH, StandardCharsets.UTF_8));
+                trackId = session.optInt("track_id", -1);
+                resumeTrackId = session.optInt("resume_track_id", -1);
+                positionMillis = Math.max(0, session.optLong("position_ms", 0));
+                loopMode = session.optString("loop_mode", "");
+                shuffleMode = session.optString("shuffle_mode", "");
+            } catch (IOException | JSONException e) {
+                System.err.println("[ERROR] Failed to load session, starting fresh: " + e.getMessage());
+            }
+        }
+
+        if (Files.exists(QUEUE_PATH)) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(QUEUE_PATH));
+                if (buffer.remaining() < 12 || buffer.getInt() != QUEUE_MAGIC || buffer.getInt() != QUEUE_VERSION) {
+                    System.err.println("[ERROR] Saved queue is not readable; starting with an empty queue.");
+                    return;
+                }
+                int[] trackIds = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(trackIds);
+                queue = trackIds;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[ERROR] Failed to load the saved queue: " + e.getMessage());
+            }
+        }
+    }
+}
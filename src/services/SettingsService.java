@@ -4,6 +4,8 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -13,8 +15,14 @@ import javafx.beans.property.SimpleObjectProperty;
 
 
 public class SettingsService {
-    private static final SettingsService instance = new SettingsService();
     private static final String SETTINGS_PATH = "data/user-settings.json";
+    public static final int MAX_CROSSFADE_SECONDS = 12;
+    public static final double DEFAULT_NORMALIZER_TARGET = -9.0;
+    public static final int MAX_CONCURRENT_DOWNLOADS = 8;
+    public static final int MAX_PLAYLIST_DOWNLOADS_PER_HOUR = 3600;
+    private static final List<String> DEFAULT_SONG_DOWNLOADER = List.of("bin/song_downloader.exe");
+    private static final List<String> DEFAULT_PLAYLIST_DOWNLOADER = List.of("bin/playlist_downloader.exe");
+    private static final SettingsService instance = new SettingsService();     // After the constants above
     private JSONObject settings;
     private JSONObject equalizerSettings;
     private JSONArray gainValues;
@@ -26,6 +34,20 @@ public class SettingsService {
     private final ObjectProperty<Double>[] equalizerGainValues = (ObjectProperty<Double>[]) new SimpleObjectProperty[10];
     private String equalizerPreset = null;
     private final ObjectProperty<Boolean> normalizerEnabled = new SimpleObjectProperty<>(null);
+    private final ObjectProperty<Integer> crossfadeSeconds = new SimpleObjectProperty<>(0);
+    private boolean albumGainEnabled = false;
+    private double normalizerTarget = DEFAULT_NORMALIZER_TARGET;
+
+    private JSONObject librarySettings;
+    private int scanDepth = 16;
+    private boolean followSymlinks = false;
+
+    private JSONObject downloadSettings;
+    private int maxConcurrentDownloads = 2;
+    private int playlistWorkers = 1;
+    private int playlistDownloadsPerHour = 60;
+    private List<String> songDownloaderCommand = DEFAULT_SONG_DOWNLOADER;
+    private List<String> playlistDownloaderCommand = DEFAULT_PLAYLIST_DOWNLOADER;
 
     private SettingsService() {
         loadSettings();
@@ -52,6 +74,20 @@ public class SettingsService {
             }
 
             normalizerEnabled.set(settings.getBoolean("normalizer_enabled"));
+            setCrossfadeSeconds(settings.optInt("crossfade_seconds", 0));
+            albumGainEnabled = settings.optBoolean("album_gain", false);
+            setNormalizerTarget(settings.optDouble("normalizer_target", DEFAULT_NORMALIZER_TARGET));
+
+            librarySettings = settings.optJSONObject("library", new JSONObject());
+            scanDepth = librarySettings.optInt("scan_depth", scanDepth);
+            followSymlinks = librarySettings.optBoolean("follow_symlinks", followSymlinks);
+
+            downloadSettings = settings.optJSONObject("downloads", new JSONObject());
+            setMaxConcurrentDownloads(downloadSettings.optInt("max_concurrent", maxConcurrentDownloads));
+            setPlaylistWorkers(downloadSettings.optInt("playlist_workers", playlistWorkers));
+            setPlaylistDownloadsPerHour(downloadSettings.optInt("playlist_downloads_per_hour", playlistDownloadsPerHour));
+            songDownloaderCommand = readCommand(downloadSettings, "song_downloader", songDownloaderCommand);
+            playlistDownloaderCommand = readCommand(downloadSettings, "playlist_downloader", playlistDownloaderCommand);
         } catch (IOException e) {
             System.err.println("Failed to load settings: " + e.getMessage());
             settings = new JSONObject();
@@ -64,6 +100,8 @@ public class SettingsService {
                 equalizerGainValues[i].set(0d);
             }
             normalizerEnabled.set(false);
+            librarySettings = new JSONObject();
+            downloadSettings = new JSONObject();
         }
     }
 
@@ -75,6 +113,24 @@ public class SettingsService {
         equalizerSettings.put("bands", gainValues);
         settings.put("equalizer", equalizerSettings);
         settings.put("normalizer_enabled", isNormalizerEnabled());
+        settings.put("crossfade_seconds", getCrossfadeSeconds());
+        settings.put("album_gain", isAlbumGainEnabled());
+        settings.put("normalizer_target", getNormalizerTarget());
+
+        librarySettings.put("scan_depth", getScanDepth());
+        librarySettings.put("follow_symlinks", isFollowSymlinksEnabled());
+        settings.put("library", librarySettings);
+
+        downloadSettings.put("max_concurrent", getMaxConcurrentDownloads());
+        downloadSettings.put("playlist_workers", getPlaylistWorkers());
+        downloadSettings.put("playlist_downloads_per_hour", getPlaylistDownloadsPerHour());
+        if (!songDownloaderCommand.equals(DEFAULT_SONG_DOWNLOADER)) {
+            downloadSettings.put("song_downloader", new JSONArray(songDownloaderCommand));
+        }
+        if (!playlistDownloaderCommand.equals(DEFAULT_PLAYLIST_DOWNLOADER)) {
+            downloadSettings.put("playlist_downloader", new JSONArray(playlistDownloaderCommand));
+        }
+        settings.put("downloads", downloadSettings);
 
         try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(SETTINGS_PATH))) {
             writer.write(settings.toString(4)); // indentation amount
@@ -84,6 +140,18 @@ public class SettingsService {
         }
     }
 
+    // A command stored as a JSON array of strings, or the fallback when missing or empty
+    private static List<String> readCommand(JSONObject json, String key, List<String> fallback) {
+        JSONArray array = json.optJSONArray(key);
+        if (array == null || array.isEmpty()) return fallback;
+
+        List<String> command = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            command.add(array.getString(i));
+        }
+        return List.copyOf(command);
+    }
+
 
     // ----- PROPERTIES -----
 
@@ -103,6 +171,10 @@ public class SettingsService {
         return normalizerEnabled;
     }
 
+    public ObjectProperty<Integer> crossfadeSecondsProperty() {
+        return crossfadeSeconds;
+    }
+
     // ----- GETTERS -----
 
     public String getTheme() {
@@ -125,6 +197,66 @@ public class SettingsService {
         return normalizerEnabled.get();
     }
 
+    // 0 means tracks change without overlapping
+    public int getCrossfadeSeconds() {
+        return crossfadeSeconds.get();
+    }
+
+    // Level the realtime normalizer aims for, in dB of spectrum RMS (-30 to 0)
+    public double getNormalizerTarget() {
+        return normalizerTarget;
+    }
+
+    // Level analyzed tracks per album instead of per track
+    public boolean isAlbumGainEnabled() {
+        return albumGainEnabled;
+    }
+
+    public int getScanDepth() {
+        return scanDepth;
+    }
+
+    public boolean isFollowSymlinksEnabled() {
+        return followSymlinks;
+    }
+
+    // Downloads running at once; more wait in the download queue
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    /*
+     *  Videos of a playlist downloaded at once. 1 is the polite sequential mode, pausing a couple
+     *  of minutes between videos; more runs that many workers, paced by
+     *  getPlaylistDownloadsPerHour() instead. Still capped by getMaxConcurrentDownloads().
+     */
+    public int getPlaylistWorkers() {
+        return playlistWorkers;
+    }
+
+    // How many playlist videos may start per hour in parallel mode, on average
+    public int getPlaylistDownloadsPerHour() {
+        return playlistDownloadsPerHour;
+    }
+
+    /*
+     *  Program (and leading arguments) run for a song download; the downloader options are
+     *  appended. Set downloads.song_downloader to e.g. ["python3", "scripts/fake_downloader.py"]
+     *  to try the download UI without network access.
+     */
+    public List<String> getSongDownloaderCommand() {
+        return songDownloaderCommand;
+    }
+
+    /*
+     *  Worker run for a playlist download, with --extract <playlist> or --video <url> appended.
+     *  Set downloads.playlist_downloader to e.g. ["python3", "scripts/fake_downloader.py"] to try
+     *  it without network access.
+     */
+    public List<String> getPlaylistDownloaderCommand() {
+        return playlistDownloaderCommand;
+    }
+
 
 
     // ----- SETTERS -----
@@ -149,4 +281,28 @@ public class SettingsService {
     public void enableNormalizer(boolean status) {
         normalizerEnabled.set(status);
     }
+
+    public void setNormalizerTarget(double targetDb) {
+        normalizerTarget = Math.max(-30.0, Math.min(0.0, targetDb));
+    }
+
+    public void enableAlbumGain(boolean status) {
+        albumGainEnabled = status;
+    }
+
+    public void setCrossfadeSeconds(int seconds) {
+        crossfadeSeconds.set(Math.max(0, Math.min(MAX_CROSSFADE_SECONDS, seconds)));
+    }
+
+    public void setMaxConcurrentDownloads(int count) {
+        maxConcurrentDownloads = Math.max(1, Math.min(MAX_CONCURRENT_DOWNLOADS, count));
+    }
+
+    public void setPlaylistWorkers(int count) {
+        playlistWorkers = Math.max(1, Math.min(MAX_CONCURRENT_DOWNLOADS, count));
+    }
+
+    public void setPlaylistDownloadsPerHour(int count) {
+        playlistDownloadsPerHour = Math.max(1, Math.min(MAX_PLAYLIST_DOWNLOADS_PER_HOUR, count));
+    }
 }
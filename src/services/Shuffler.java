@@ -0,0 +1,317 @@
+package services;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+
+/*
+ *  Shuffle order over track ids, built lazily one draw at a time (Fisher-Yates).
+ *
+ *  ->  pool holds the ids not drawn yet; a draw picks a random slot and fills it with the last
+ *      id (swap-remove), so every draw is O(1) and uniform over what's left
+ *  ->  history is a double-ended ring buffer of drawn ids with a cursor at the current track;
+ *      previous/next move the cursor, and only moving past the newest entry draws again
+ *  ->  Going back past the oldest entry draws a random track to precede it
+ *  ->  Library changes don't reshuffle: new ids join the pool, removed ids leave the pool in
+ *      O(1) and are skipped when history is navigated over them
+ *  ->  Everything is stored in int arrays indexed by id, so nothing is boxed
+ *
+ *  The weighted (smart) mode draws from the same pool with probability proportional to a
+ *  per-track weight, kept in a Fenwick tree so a draw or a weight change is O(log n). A draw
+ *  whose artist is among the last RECENT_ARTISTS history entries is redrawn, up to
+ *  MAX_REDRAWS times, so the same artist rarely comes back right away.
+ *
+ *  Methods return a track id, or -1 when there's nothing to move to.
+ */
+class Shuffler {
+    private static final byte UNKNOWN = 0, IN_POOL = 1, IN_HISTORY = 2;
+    private static final int RECENT_ARTISTS = 3;
+    private static final int MAX_REDRAWS = 8;
+
+    private final Random random = new Random();
+    private final IntPredicate inLibrary;
+    private final IntToDoubleFunction weightOf;     // Null in uniform mode
+    private final IntUnaryOperator artistOf;        // Artist key by id, 0 when unknown
+    private final WeightTree weights;
+
+    private int[] pool = new int[16];
+    private int poolSize = 0;
+    private int[] poolPosition = new int[16];   // By id, valid while state is IN_POOL
+    private byte[] state = new byte[16];        // By id
+
+    private int[] history = new int[16];        // Ring buffer
+    private int historyHead = 0;
+    private int historySize = 0;
+    private int cursor = -1;                    // Logical index into history
+
+    // inLibrary tells whether an id is still part of the library, for skipping stale history
+    Shuffler(int[] trackIds, int currentId, IntPredicate inLibrary) {
+        this(trackIds, currentId, inLibrary, null, null);
+    }
+
+    // Weighted mode; weightOf must be positive for every track in the library
+    Shuffler(int[] trackIds, int currentId, IntPredicate inLibrary,
+             IntToDoubleFunction weightOf, IntUnaryOperator artistOf) {
+        this.inLibrary = inLibrary;
+        this.weightOf = weightOf;
+        this.artistOf = artistOf;
+        this.weights = (weightOf != null) ? new WeightTree() : null;
+        for (int id : trackIds) {
+            if (id != currentId) add(id);
+        }
+        if (currentId >= 0) {
+            ensureIdCapacity(currentId);
+            pushLast(currentId);
+            cursor = 0;
+        }
+    }
+
+    int next() {
+        int target = nextValidAfter(cursor);
+        if (target < 0) {
+            if (!drawToEnd()) return -1;
+            target = historySize - 1;
+        }
+        cursor = target;
+        return historyAt(cursor);
+    }
+
+    // The id next() would return, without moving; a draw made here is kept for next()
+    int peekNext() {
+        int target = nextValidAfter(cursor);
+        if (target < 0) {
+            if (!drawToEnd()) return -1;
+            target = historySize - 1;
+        }
+        return historyAt(target);
+    }
+
+    int previous() {
+        for (int i = cursor - 1; i >= 0; i--) {
+            if (inLibrary.test(historyAt(i))) {
+                cursor = i;
+                return historyAt(cursor);
+            }
+        }
+
+        // Nothing older: a random track precedes everything played so far
+        if (poolSize == 0) return -1;
+        int id = drawFromPool(false);
+        pushFirst(id);
+        cursor = 0;
+        return id;
+    }
+
+    /*
+     *  A track picked by hand while shuffling. Entries ahead of the cursor (skipped back over or
+     *  pre-drawn) go back to the pool, and the pick becomes the newest history entry.
+     */
+    void select(int id) {
+        if (cursor >= 0 && historyAt(cursor) == id) return;
+
+        while (historySize > cursor + 1) {
+            int dropped = history[physicalIndex(historySize - 1)];
+            historySize--;
+            if (state[dropped] == IN_HISTORY) {
+                state[dropped] = UNKNOWN;
+                add(dropped);
+            }
+        }
+
+        ensureIdCapacity(id);
+        if (state[id] == IN_POOL) removeFromPool(id);
+        pushLast(id);
+        cursor = historySize - 1;
+    }
+
+    void add(int id) {
+        ensureIdCapacity(id);
+        if (state[id] != UNKNOWN) return;
+
+        if (poolSize == pool.length) pool = Arrays.copyOf(pool, poolSize * 2);
+        pool[poolSize] = id;
+        poolPosition[id] = poolSize;
+        poolSize++;
+        state[id] = IN_POOL;
+        if (weights != null) weights.set(id, weightOf.applyAsDouble(id));
+    }
+
+    // Re-reads the weight of an undrawn track, e.g. after its play count or rating changed
+    void updateWeight(int id) {
+        if (weights != null && id < state.length && state[id] == IN_POOL) {
+            weights.set(id, weightOf.applyAsDouble(id));
+        }
+    }
+
+    // History entries of the id stay in place and are skipped from now on
+    void remove(int id) {
+        if (id >= state.length) return;
+        if (state[id] == IN_POOL) removeFromPool(id);
+        state[id] = UNKNOWN;
+    }
+
+    int getCurrent() {
+        return (cursor >= 0) ? historyAt(cursor) : -1;
+    }
+
+
+    // --- Pool ---
+
+    // atEnd tells which end of history the draw goes to, for the recent artist check
+    private int drawFromPool(boolean atEnd) {
+        int id;
+        if (weights == null) {
+            id = pool[random.nextInt(poolSize)];
+        } else {
+            id = drawWeighted();
+            for (int redraw = 0; redraw < MAX_REDRAWS && isRecentArtist(artistOf.applyAsInt(id), atEnd); redraw++) {
+                id = drawWeighted();
+            }
+        }
+        removeFromPool(id);
+        return id;
+    }
+
+    private int drawWeighted() {
+        int id = weights.find(random.nextDouble() * weights.total());
+
+        // Rounding can land on an empty slot at the edges; any pooled track will do then
+        return (id < state.length && state[id] == IN_POOL) ? id : pool[random.nextInt(poolSize)];
+    }
+
+    private boolean isRecentArtist(int artist, boolean atEnd) {
+        if (artist == 0) return false;
+
+        int checked = Math.min(RECENT_ARTISTS, historySize);
+        for (int i = 0; i < checked; i++) {
+            int id = historyAt(atEnd ? historySize - 1 - i : i);
+            if (artistOf.applyAsInt(id) == artist) return true;
+        }
+        return false;
+    }
+
+    private void removeFromPool(int id) {
+        int position = poolPosition[id];
+        int last = pool[--poolSize];
+        pool[position] = last;
+        poolPosition[last] = position;
+        state[id] = UNKNOWN;
+        if (weights != null) weights.set(id, 0);
+    }
+
+    private boolean drawToEnd() {
+        if (poolSize == 0) return false;
+        pushLast(drawFromPool(true));
+        return true;
+    }
+
+
+    // --- History ---
+
+    private int nextValidAfter(int index) {
+        for (int i = index + 1; i < historySize; i++) {
+            if (inLibrary.test(historyAt(i))) return i;
+        }
+        return -1;
+    }
+
+    private int historyAt(int index) {
+        return history[physicalIndex(index)];
+    }
+
+    private int physicalIndex(int index) {
+        int physical = historyHead + index;
+        return (physical >= history.length) ? physical - history.length : physical;
+    }
+
+    private void pushLast(int id) {
+        growHistoryIfFull();
+        history[physicalIndex(historySize)] = id;
+        historySize++;
+        state[id] = IN_HISTORY;
+    }
+
+    private void pushFirst(int id) {
+        growHistoryIfFull();
+        historyHead = (historyHead == 0) ? history.length - 1 : historyHead - 1;
+        history[historyHead] = id;
+        historySize++;
+        state[id] = IN_HISTORY;
+    }
+
+    private void growHistoryIfFull() {
+        if (historySize < history.length) return;
+
+        int[] grown = new int[history.length * 2];
+        for (int i = 0; i < historySize; i++) {
+            grown[i] = historyAt(i);
+        }
+        history = grown;
+        historyHead = 0;
+    }
+
+    private void ensureIdCapacity(int id) {
+        if (id < state.length) return;
+
+        int capacity = Math.max(id + 1, state.length * 2);
+        state = Arrays.copyOf(state, capacity);
+        poolPosition = Arrays.copyOf(poolPosition, capacity);
+    }
+
+
+    // --- Subclasses ---
+
+    /*
+     *  Fenwick (binary indexed) tree of weights by id: point updates and prefix sum searches in
+     *  O(log n). Capacity doubles as ids grow, rebuilding the tree in O(n).
+     */
+    private static class WeightTree {
+        private double[] weight = new double[16];   // By id
+        private double[] tree = new double[17];     // 1-based partial sums
+        private double total = 0;
+
+        void set(int id, double value) {
+            if (id >= weight.length) grow(id);
+
+            double delta = value - weight[id];
+            if (delta == 0) return;
+            weight[id] = value;
+            total += delta;
+            for (int i = id + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        double total() {
+            return total;
+        }
+
+        // The id whose cumulative weight range contains target (0 <= target < total)
+        int find(double target) {
+            int position = 0;
+            for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+                int next = position + step;
+                if (next < tree.length && tree[next] <= target) {
+                    target -= tree[next];
+                    position = next;
+                }
+            }
+            return position;
+        }
+
+        private void grow(int id) {
+            weight = Arrays.copyOf(weight, Math.max(id + 1, weight.length * 2));
+            tree = new double[weight.length + 1];
+            total = 0;
+            for (int i = 1; i < tree.length; i++) {
+                tree[i] += weight[i - 1];
+                total += weight[i - 1];
+                int parent = i + (i & -i);
+                if (parent < tree.length) tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package services;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+
+
+/*
+ *  An observable value set from any thread and published on another (the FX thread), at most
+ *  once per interval. Values set in between are coalesced: only the latest is published, and
+ *  the latest is always published in the end.
+ *
+ *  ->  set() only stores the value and, if no publish is pending, schedules one for when the
+ *      interval since the last publish is up, so a worker can call it for every line it reads
+ *  ->  The property only ever changes on the publishing executor
+ */
+public class ThrottledProperty<T> {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "throttled-property-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long intervalNanos;
+    private final Executor publisher;
+    private final ReadOnlyObjectWrapper<T> property;
+    private final AtomicReference<T> latest;
+    private final AtomicBoolean publishPending = new AtomicBoolean(false);
+    private volatile long lastPublishNanos;
+
+    ThrottledProperty(T initialValue, long intervalMillis, Executor publisher) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.publisher = publisher;
+        this.property = new ReadOnlyObjectWrapper<>(initialValue);
+        this.latest = new AtomicReference<>(initialValue);
+        this.lastPublishNanos = System.nanoTime() - intervalNanos;
+    }
+
+    public ReadOnlyObjectProperty<T> getReadOnlyProperty() {
+        return property.getReadOnlyProperty();
+    }
+
+    void set(T value) {
+        latest.set(value);
+        if (!publishPending.compareAndSet(false, true)) return;
+
+        long wait = Math.max(0, lastPublishNanos + intervalNanos - System.nanoTime());
+        timer.schedule(this::publish, wait, TimeUnit.NANOSECONDS);
+    }
+
+    private void publish() {
+        lastPublishNanos = System.nanoTime();
+        publishPending.set(false);      // Values set from here on schedule the next publish
+        publisher.execute(() -> property.set(latest.get()));
+    }
+}
@@ -0,0 +1,50 @@
+package services;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/*
+ *  Paces how often something may start: ratePerSecond times a second on average, with bursts of
+ *  up to capacity after a quiet spell.
+ *
+ *  ->  acquire() takes a token when there's one, else reserves the next one and sleeps until it's
+ *      due, so waiting threads are served in the order they came
+ *  ->  Each acquire also waits a random extra of up to jitter token intervals, so starts don't fall
+ *      on a regular beat
+ *
+ *  Thread-safe.
+ */
+class TokenBucket {
+    private final double tokensPerNano;
+    private final int capacity;
+    private final long maxJitterNanos;
+    private final Random random = new Random();
+
+    // Guarded by this
+    private double tokens;                  // Negative when tokens are reserved ahead
+    private long lastRefillNanos = System.nanoTime();
+
+    // Starts full
+    TokenBucket(double ratePerSecond, int capacity, double jitter) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.maxJitterNanos = (long) (jitter / tokensPerNano);
+        this.tokens = capacity;
+    }
+
+    void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+
+            tokens -= 1;
+            waitNanos = (tokens >= 0) ? 0 : (long) (-tokens / tokensPerNano);
+        }
+
+        waitNanos += (long) (random.nextDouble() * maxJitterNanos);
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+}
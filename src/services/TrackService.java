@@ -1,60 +1,396 @@
 package services;
 
+import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.InvalidPathException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.Track;
 
 public class TrackService {
     private static final TrackService instance = new TrackService();
+    private static final int UPCOMING_ANALYSIS_COUNT = 3;   // Tracks after the selected one analyzed early
     private Path musicFolderPath;
 
-    private final ObjectProperty<File> selectedTrack;
-    private final List<File> trackList;
+    private final ObjectProperty<Track> selectedTrack;
+    private final ObservableList<Track> trackList;
+    private final LibraryIndex libraryIndex;
+    private final LibraryScanner libraryScanner;
+    private LibraryWatcher libraryWatcher;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private boolean searchIndexBuilt = false;
+    private final AtomicInteger loudnessResultsSinceSave = new AtomicInteger();    // Shared by the analysis workers
     private int currentTrackIndex;
+    private int[] positionById = new int[0];    // trackList position of each track id, -1 if absent
+    private boolean positionsStale = true;
+
+    private final PlayQueue playQueue = new PlayQueue();
+    private int resumeTrackId = -1;     // Library track to continue from once the queue is played
+    private boolean restoringSession = false;
 
     private Shuffler shuffler;
     private boolean shuffleEnabled;
+    private boolean smartShuffle;
 
     private TrackService() throws InvalidPathException {
         selectedTrack = new SimpleObjectProperty<>(null);
-        trackList = new ArrayList<>();
+        trackList = FXCollections.observableArrayList();
+        libraryIndex = new LibraryIndex();
+        libraryScanner = new LibraryScanner(SettingsService.getInstance().getScanDepth(),
+                                            SettingsService.getInstance().isFollowSymlinksEnabled(),
+                                            this::readTagsIfNeeded);
         currentTrackIndex = 0;
 
         shuffleEnabled = false;
 
+        // Keep the search index in step with the library once it has been built
+        trackList.addListener((ListChangeListener<Track>) change -> {
+            if (!searchIndexBuilt) return;
+            while (change.next()) {
+                change.getRemoved().forEach(searchIndex::remove);
+                change.getAddedSubList().forEach(searchIndex::add);
+            }
+        });
+
+        // Positions by id are rebuilt lazily; the shuffle pool follows the library as it changes
+        trackList.addListener((ListChangeListener<Track>) change -> {
+            while (change.next()) {
+                if (!isSameTracks(change)) positionsStale = true;
+            }
+            if (shuffler == null) return;
+
+            change.reset();
+            while (change.next()) {
+                for (Track track : change.getAddedSubList()) {
+                    shuffler.add(track.getId());
+                    shuffler.updateWeight(track.getId());   // Re-tagged tracks may have a new rating
+                }
+            }
+            change.reset();
+            while (change.next()) {
+                for (Track track : change.getRemoved()) {
+                    if (indexOfId(track.getId()) < 0) shuffler.remove(track.getId());
+                }
+            }
+        });
+
         try {
             musicFolderPath = Paths.get(System.getProperty("user.home"), "Music");
         } catch (InvalidPathException e) {
             return; // TODO: Create a fallback folder to ensure service is initialized
         }
 
-        loadTracksFromFolder(musicFolderPath);  // TODO: Potentially synchronize function to run with timeout to catch freshly added tracks
-        System.out.println(trackList);
+        // Show the cached library right away, then reconcile it against the folder off the FX thread
+        if (libraryIndex.load()) {
+            List<Track> cachedTracks = new ArrayList<>();
+            for (LibraryIndex.Entry entry : libraryIndex.getEntries()) {
+                cachedTracks.add(entry.toTrack());
+            }
+            trackList.setAll(cachedTracks);
+        }
+        System.out.println("[INFO] Loaded " + trackList.size() + " track(s) from library index.");
+
+        Thread reconciler = new Thread(() -> {
+            try {
+                libraryWatcher = new LibraryWatcher(musicFolderPath, this::applyWatchedChanges);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Live folder watching unavailable: " + e.getMessage());
+            }
+            loadTracksFromFolder(musicFolderPath);
+            if (libraryWatcher != null) {
+                libraryWatcher.start();
+            }
+            queueLoudnessAnalysis();
+        }, "library-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+
+        selectedTrack.addListener((obs, oldTrack, newTrack) -> prioritizeUpcomingAnalysis());
+        selectedTrack.addListener((obs, oldTrack, newTrack) -> {
+            if (newTrack != null && !restoringSession) recordPlay(newTrack.getId());
+        });
+
+        // Analysis only runs for users who level loudness at all
+        SettingsService.getInstance().normalizerStatusProperty().addListener((obs, wasEnabled, isEnabled) -> {
+            if (Boolean.TRUE.equals(isEnabled)) queueLoudnessAnalysis();
+        });
     }
 
+    /*
+     *  Reconciles the library index with the folder tree.
+     *  The recursive scanner streams batches of files (with tags already read in parallel for new
+     *  or modified files); new and re-tagged tracks are pushed to trackList on the FX thread as each
+     *  batch arrives, and once the walk is complete any indexed track under the folder that wasn't
+     *  seen again is removed.
+     */
     public void loadTracksFromFolder(Path folderPath) {
-        File folder = folderPath.toFile();
-        if (folder.exists() && folder.isDirectory()) {
-            
-            @SuppressWarnings("unused") 
-            File[] mp3Files = folder.listFiles(
-                                (dir, name) -> name.toLowerCase()
-                                                   .endsWith(".mp3"));
-            if (mp3Files != null) {
-                trackList.addAll(List.of(mp3Files));
+        if (!Files.isDirectory(folderPath)) return;
+
+        Set<String> foundPaths = ConcurrentHashMap.newKeySet();
+        libraryScanner.scan(folderPath, 0, batch -> {
+            for (LibraryScanner.ScannedFile file : batch) {
+                foundPaths.add(file.getPath().toString());
+            }
+            List<Track> addedTracks = new ArrayList<>();
+            List<Track> updatedTracks = new ArrayList<>();
+            indexScannedFiles(batch, addedTracks, updatedTracks);
+            if (!addedTracks.isEmpty() || !updatedTracks.isEmpty()) {
+                Platform.runLater(() -> applyLibraryChanges(addedTracks, List.of(), updatedTracks));
+            }
+        }, libraryWatcher != null ? libraryWatcher::register : null);
+
+        String folderPrefix = folderPath.toAbsolutePath().toString() + File.separator;
+        List<Track> removedTracks = new ArrayList<>();
+        for (LibraryIndex.Entry entry : libraryIndex.getEntries()) {
+            if (entry.getPath().startsWith(folderPrefix) && !foundPaths.contains(entry.getPath())) {
+                libraryIndex.remove(entry.getPath());
+                removedTracks.add(entry.toTrack());
+            }
+        }
+
+        libraryIndex.save();
+        releaseRemovedTracks(removedTracks);
+        if (!removedTracks.isEmpty()) {
+            Platform.runLater(() -> applyLibraryChanges(List.of(), removedTracks, List.of()));
+        }
+    }
+
+    // Runs on the scanner's worker threads, so tags of a large library are read on all cores
+    private void readTagsIfNeeded(LibraryScanner.ScannedFile file) {
+        LibraryIndex.Entry known = libraryIndex.get(file.getPath().toString());
+        if (known == null || !known.isTagged()
+                || known.getSize() != file.getSize() || known.getModified() != file.getModified()) {
+            file.setTags(readTagsQuietly(file.getPath()));
+        }
+    }
+
+    // Null if the file couldn't be read right now; the track stays untagged and is retried later
+    private Id3Reader.TrackTags readTagsQuietly(Path path) {
+        try {
+            return Id3Reader.readTags(path);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read tags of " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void indexScannedFiles(List<LibraryScanner.ScannedFile> batch,
+                                   List<Track> addedTracks, List<Track> updatedTracks) {
+        for (LibraryScanner.ScannedFile file : batch) {
+            String key = file.getPath().toString();
+            indexTrackFile(key, file.getSize(), file.getModified(), file.getTags(), addedTracks, updatedTracks);
+        }
+    }
+
+    /*
+     *  Updates the index entry of one track file. New tracks go to addedTracks, known tracks that
+     *  changed on disk or got fresh tags go to updatedTracks; cached artwork of modified files is dropped.
+     */
+    private void indexTrackFile(String key, long size, long modified, Id3Reader.TrackTags tags,
+                                List<Track> addedTracks, List<Track> updatedTracks) {
+        LibraryIndex.Entry known = libraryIndex.get(key);
+        boolean modifiedOnDisk = known != null && (known.getSize() != size || known.getModified() != modified);
+        if (modifiedOnDisk) {
+            ArtworkService.getInstance().invalidate(new File(key));
+        }
+
+        LibraryIndex.Entry entry = libraryIndex.put(key, size, modified);
+        if (tags != null) {
+            libraryIndex.setTags(key, tags);
+        }
+
+        if (known == null) {
+            addedTracks.add(entry.toTrack());
+        } else if (modifiedOnDisk || tags != null) {
+            updatedTracks.add(entry.toTrack());
+        }
+    }
+
+    /*
+     *  Applies a debounced burst of watcher events as an incremental diff.
+     *  Only the reported paths are looked at; an overflowed event queue (reported as the music
+     *  folder itself) falls back to a full reconcile.
+     */
+    private void applyWatchedChanges(Set<Path> changedPaths) {
+        if (changedPaths.contains(musicFolderPath)) {
+            loadTracksFromFolder(musicFolderPath);
+            return;
+        }
+
+        List<Track> addedTracks = Collections.synchronizedList(new ArrayList<>());
+        List<Track> updatedTracks = Collections.synchronizedList(new ArrayList<>());
+        List<Track> removedTracks = new ArrayList<>();
+
+        for (Path path : changedPaths) {
+            if (Files.isDirectory(path)) {
+                // Folder created or moved in; scanning it also puts it under watch
+                int depth = musicFolderPath.relativize(path).getNameCount();
+                libraryScanner.scan(path, depth, batch -> indexScannedFiles(batch, addedTracks, updatedTracks),
+                                    libraryWatcher::register);
+            } else if (Files.isRegularFile(path) && LibraryScanner.isTrackFile(path)) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    LibraryScanner.ScannedFile file = new LibraryScanner.ScannedFile(path.toAbsolutePath(),
+                                                        attributes.size(), attributes.lastModifiedTime().toMillis());
+                    readTagsIfNeeded(file);
+                    indexScannedFiles(List.of(file), addedTracks, updatedTracks);
+                } catch (IOException e) {
+                    // Vanished again before we got to it; the delete event follows
+                }
+            } else if (!Files.exists(path)) {
+                String key = path.toAbsolutePath().toString();
+                LibraryIndex.Entry removed = libraryIndex.remove(key);
+                if (removed != null) {
+                    removedTracks.add(removed.toTrack());
+                    continue;
+                }
+
+                // Might have been a folder; drop everything that was indexed below it
+                String folderPrefix = key + File.separator;
+                for (LibraryIndex.Entry entry : libraryIndex.getEntries()) {
+                    if (entry.getPath().startsWith(folderPrefix)) {
+                        libraryIndex.remove(entry.getPath());
+                        removedTracks.add(entry.toTrack());
+                    }
+                }
+            }
+        }
+
+        libraryIndex.save();
+        releaseRemovedTracks(removedTracks);
+        if (!addedTracks.isEmpty() || !updatedTracks.isEmpty()) {
+            queueLoudnessAnalysis();
+        }
+        if (!addedTracks.isEmpty() || !removedTracks.isEmpty() || !updatedTracks.isEmpty()) {
+            List<Track> added = new ArrayList<>(addedTracks);
+            List<Track> updated = new ArrayList<>(updatedTracks);
+            Platform.runLater(() -> applyLibraryChanges(added, removedTracks, updated));
+        }
+    }
+
+    // Drops cached artwork and queued analysis of tracks that left the library
+    private void releaseRemovedTracks(List<Track> removedTracks) {
+        for (Track track : removedTracks) {
+            AnalysisScheduler.getInstance().cancel(track.getFile().getPath());
+            ArtworkService.getInstance().invalidate(track.getFile());
+        }
+    }
+
+    // Lets queued analysis of the selected track and the next few jump ahead of the library backlog
+    private void prioritizeUpcomingAnalysis() {
+        Track selected = getSelectedTrack();
+        if (selected == null) return;
+
+        AnalysisScheduler scheduler = AnalysisScheduler.getInstance();
+        scheduler.prioritize(selected.getFile().getPath(), AnalysisScheduler.Priority.PLAYING);
+
+        Track next = peekNextTrack();
+        if (next != null) {
+            scheduler.prioritize(next.getFile().getPath(), AnalysisScheduler.Priority.UPCOMING);
+        }
+        if (!shuffleEnabled) {
+            int last = Math.min(trackList.size() - 1, currentTrackIndex + UPCOMING_ANALYSIS_COUNT);
+            for (int i = currentTrackIndex + 2; i <= last; i++) {
+                scheduler.prioritize(trackList.get(i).getFile().getPath(), AnalysisScheduler.Priority.UPCOMING);
+            }
+        }
+    }
+
+    // Queues every indexed track without a loudness measurement; the analyzer skips queued ones
+    private void queueLoudnessAnalysis() {
+        if (!SettingsService.getInstance().isNormalizerEnabled()) return;
+
+        for (LibraryIndex.Entry entry : libraryIndex.getEntries()) {
+            if (entry.isAnalyzed()) continue;
+
+            String key = entry.getPath();
+            LoudnessAnalyzer.getInstance().submit(Paths.get(key), loudness -> storeLoudness(key, loudness));
+        }
+    }
+
+    /*
+     *  Runs on any AnalysisScheduler worker, several at once. The index is saved in batches rather
+     *  than after every track; whoever resets the counter saves, which covers the results counted
+     *  before the reset.
+     */
+    private void storeLoudness(String key, LoudnessAnalyzer.Loudness loudness) {
+        libraryIndex.setLoudness(key, loudness);
+        int unsaved = loudnessResultsSinceSave.incrementAndGet();
+        if (unsaved >= 50 || LoudnessAnalyzer.getInstance().isIdle()) {
+            if (loudnessResultsSinceSave.getAndSet(0) > 0) libraryIndex.save();
+        }
+    }
+
+    // A change that only swapped tracks for updated instances with the same ids
+    private static boolean isSameTracks(ListChangeListener.Change<? extends Track> change) {
+        if (!change.wasReplaced() || change.getRemovedSize() != change.getAddedSize()) return false;
+
+        List<? extends Track> removed = change.getRemoved();
+        for (int i = 0; i < removed.size(); i++) {
+            if (removed.get(i).getId() != change.getList().get(change.getFrom() + i).getId()) return false;
+        }
+        return true;
+    }
+
+    // Position of a track id in trackList, or -1; O(1) unless the list was reordered since last time
+    private int indexOfId(int id) {
+        if (positionsStale) {
+            int maxId = -1;
+            for (Track track : trackList) {
+                maxId = Math.max(maxId, track.getId());
             }
+            if (positionById.length <= maxId) positionById = new int[maxId + 1];
+            Arrays.fill(positionById, -1);
+            for (int i = 0; i < trackList.size(); i++) {
+                positionById[trackList.get(i).getId()] = i;
+            }
+            positionsStale = false;
+        }
+        return (id >= 0 && id < positionById.length) ? positionById[id] : -1;
+    }
+
+    // Must be called on the FX thread
+    private void applyLibraryChanges(List<Track> addedTracks, List<Track> removedTracks, List<Track> updatedTracks) {
+        if (!removedTracks.isEmpty()) {
+            trackList.removeAll(new HashSet<>(removedTracks));
+        }
+
+        if (!updatedTracks.isEmpty()) {
+            // Updates keep their id, so replacing them in place leaves the positions valid
+            for (Track track : updatedTracks) {
+                int position = indexOfId(track.getId());
+                if (position >= 0) trackList.set(position, track);
+            }
+        }
+        trackList.addAll(addedTracks);
+
+        // Keep the index of the playing track valid after the list shifted
+        Track selected = getSelectedTrack();
+        int selectedIndex = (selected != null) ? indexOfId(selected.getId()) : -1;
+        if (selectedIndex >= 0) {
+            currentTrackIndex = selectedIndex;
         }
+        System.out.println("[INFO] Library updated: " + addedTracks.size() + " added, "
+                            + removedTracks.size() + " removed, " + updatedTracks.size() + " updated.");
     }
 
     // --- Getters ---
@@ -67,46 +403,111 @@ public class TrackService {
         return currentTrackIndex;
     }
 
-    public List<File> getTrackList() {
+    public ObservableList<Track> getTrackList() {
         return trackList;
     }
 
-    public File getSelectedTrack() {
+    public Track getSelectedTrack() {
         return selectedTrack.get();
     }
 
+    // The library track with this id, or null when it's no longer in the library
+    public Track getTrackById(int id) {
+        int index = indexOfId(id);
+        return (index >= 0) ? trackList.get(index) : null;
+    }
+
+    // Library id of a file, or -1 when it isn't in the library; safe on any thread
+    public int getTrackIdByPath(Path path) {
+        LibraryIndex.Entry entry = libraryIndex.get(path.toAbsolutePath().normalize().toString());
+        return (entry != null) ? entry.getId() : -1;
+    }
+
+    public PlayQueue getPlayQueue() {
+        return playQueue;
+    }
+
+    // Library track playback continues after once the queue runs out, or -1
+    public int getResumeTrackId() {
+        return resumeTrackId;
+    }
+
+    // Builds the index from the current library on first call; FX thread only
+    public SearchIndex getSearchIndex() {
+        if (!searchIndexBuilt) {
+            trackList.forEach(searchIndex::add);
+            searchIndexBuilt = true;
+        }
+        return searchIndex;
+    }
+
 
     // --- Setters ---
 
-    public void setSelectedTrack(File file) {
-        selectedTrack.set(file);
+    public void setSelectedTrack(Track track) {
+        selectedTrack.set(track);
     }
 
+    // Selects a track by identity, e.g. from a filtered view of the library
+    public void selectTrack(Track track) {
+        setCurrentTrackIndex(indexOfId(track.getId()));
+    }
+
+    // While shuffling, a track picked this way joins the shuffle history
     public void setCurrentTrackIndex(int index) {
-        System.out.println("Current track index was " + currentTrackIndex);
+        selectIndex(index, -1);
+    }
+
+    // Set before the selection changes, so selection listeners see the new resume track
+    private void selectIndex(int index, int resumeTrackId) {
+        this.resumeTrackId = resumeTrackId;
         if (index >= 0 && index < trackList.size()) {
+            if (shuffleEnabled) shuffler.select(trackList.get(index).getId());
             currentTrackIndex = index;
             setSelectedTrack(trackList.get(index));
         }
-        System.out.println("Current track index is now " + currentTrackIndex);
+    }
+
+    /*
+     *  Selects the track a previous session ended on. It was counted as a play back then, so it
+     *  isn't counted again. Returns false when the track has left the library since.
+     */
+    public boolean restoreTrack(int trackId, int resumeTrackId) {
+        int index = indexOfId(trackId);
+        if (index < 0) return false;
+
+        restoringSession = true;
+        try {
+            selectIndex(index, (!shuffleEnabled && indexOfId(resumeTrackId) >= 0) ? resumeTrackId : -1);
+        } finally {
+            restoringSession = false;
+        }
+        return true;
     }
 
     public void enableShuffle() {
-        shuffleEnabled = true;
-        shuffler = new Shuffler();
-        System.out.println("Shuffle button was truly enabled");
+        startShuffle(false);
+    }
+
+    // Shuffle weighted towards rarely played and highly rated tracks, spreading out artists
+    public void enableSmartShuffle() {
+        startShuffle(true);
+    }
+
+    // Starts over in the current shuffle mode, with every track undrawn again
+    public void reshuffle() {
+        if (shuffleEnabled) startShuffle(smartShuffle);
     }
 
     public void disableShuffle() {
         shuffleEnabled = false;
-        shuffler.reset();
-        System.out.println("Shuffle button was truly disabled");
+        shuffler = null;
     }
 
 
     // --- Properties ---
 
-    public ObjectProperty<File> selectedTrackProperty() {
+    public ObjectProperty<Track> selectedTrackProperty() {
         return selectedTrack;
     }
 
@@ -114,186 +515,174 @@ public class TrackService {
     // --- Methods ---
 
     public boolean previousTrack() {
-        System.out.println("previousTrack() was called");
-        // if shuffler.previousTrack() returns false then rollback to original previousTrack() method
-        if (shuffleEnabled) return shuffler.previousTrack();    
+        if (shuffleEnabled) return selectShuffled(shuffler.previous());
         
         boolean success = false;
         if (currentTrackIndex > 0) {
             setCurrentTrackIndex(--currentTrackIndex);
             success = true;
         }
-        System.out.println("previousTrack() returned " + success);
         return success;
     }
 
+    // Queued tracks come first, then the shuffle or the library order
     public boolean nextTrack() {
-        System.out.println("nextTrack() was called");
-        if (shuffleEnabled) return shuffler.nextTrack();
+        if (selectQueuedTrack()) return true;
+        if (shuffleEnabled) return selectShuffled(shuffler.next());
 
+        int index = resumeIndex();
         boolean success = false;
-        if (currentTrackIndex < trackList.size() - 1) {
-            setCurrentTrackIndex(++currentTrackIndex);
+        if (index < trackList.size() - 1) {
+            setCurrentTrackIndex(index + 1);
             success = true;
         }
-        System.out.println("nextTrack() returned " + success);
         return success;
     }
 
-    public boolean isMusicFolderEmpty() {
-        return trackList.isEmpty();
-    }
+    private void startShuffle(boolean smart) {
+        int[] trackIds = new int[trackList.size()];
+        for (int i = 0; i < trackIds.length; i++) {
+            trackIds[i] = trackList.get(i).getId();
+        }
+        Track selected = getSelectedTrack();
+        int currentId = (selected != null) ? selected.getId() : -1;
 
+        shuffler = smart ? new Shuffler(trackIds, currentId, id -> indexOfId(id) >= 0, this::shuffleWeight, this::artistKey)
+                         : new Shuffler(trackIds, currentId, id -> indexOfId(id) >= 0);
+        smartShuffle = smart;
+        shuffleEnabled = true;
+    }
 
-    // --- Subclasses ---
-
-    class Shuffler {
-        /*
-         *  Shuffler is based on a conceptual trackList clone.
-         * 
-         *  How this clone behaves, is that it chooses a random index, selects it as the current track,
-         *  and then pushes it to the back.
-         * 
-         *  It once again chooses a random index in the subset excluding the back, and once again selects 
-         *  this as the current track and pushes it to the back of this subarray, and so on.
-         * 
-         *  This conceptual data structure has been implemented using a HashMap to keep track of which 
-         *  index of the original trackList occupies which position in the imaginary clone, and a Deque
-         *  to keep track of playedTracks for previous/next controls.
-         *   
-         *  When rewinding beyond the "first" track in the shuffled list, it selects a random track to 
-         *  precede that.
-         * 
-         */
-
-        private final Map<Integer, Integer> shuffleMap = new HashMap<>();
-        private final Deque<Integer> playedTracks = new LinkedList<>();
-        private final Deque<Integer> replayedTracks = new LinkedList<>();
-        private final Random indexGenerator = new Random();
-        private int selector = 0;
-
-        /*
-         *  ->  shuffleMap tracks which indices replace which indices in their respective positions in the
-         *      imaginary trackList clone
-         *  ->  playedTracks keeps track of tracks that were played, including currently playing track
-         *  ->  replayedTracks keeps track of tracks that were once played, but have been rewinded
-         *  ->  indexGenerator is a random object used to generate valid indices for the shuffler
-         *  ->  selector selects which index/position to replace in the imaginary clone list
-         */
-
-        Shuffler() {
-            System.out.println("getSelectedTrack() prints " + getSelectedTrack().getName());
-            
-            shuffleMap.put(currentTrackIndex, preDecrementSelector());
-            playedTracks.push(currentTrackIndex);
-            
-            System.out.println("Selector at the time of initialization is " + selector);
-            System.out.println("shuffleMap at the time of initialization: " + shuffleMap.toString());
-            System.out.println("playedTracks at the time of initialization: " + playedTracks);
-            System.out.println("replayedTracks at the time of initialization: " + replayedTracks);
-        }
-
-        // Pre-decrement modulo (trackListSize) [Required to return after traversing previousTrack beyond bounds]
-        int preDecrementSelector() {
-            selector = (selector + trackList.size() - 1) % trackList.size();
-            return selector;
-        }
-
-        // Pre-increment module (trackListSize) [Required to traverse previousTrack beyond bounds]
-        int preIncrementSelector() {
-            selector = (selector + 1) % trackList.size();
-            return selector;
-        }
-
-        // Generates random index in bounds of imaginary clone
-        int generateRandomIndex() {
-            int index = indexGenerator.nextInt(trackList.size() 
-                            - (playedTracks.size() + replayedTracks.size()));
-            return index;
-        }
-
-        boolean previousTrack() {
-            System.out.println("Shuffler.previousTrack() was called");
-
-            if (replayedTracks.size() == trackList.size()) {
-                System.out.println("Shuffler.previousTrack() returned false");
-                return false;
-            }
+    /*
+     *  Smart shuffle weight of a track.
+     *  ->  Rating: every star (POPM steps of 64) doubles the weight, 3 stars or unrated is neutral
+     *  ->  Plays: the weight falls with the square root of the play count, so often played tracks
+     *      come up less without disappearing
+     */
+    private double shuffleWeight(int id) {
+        int position = indexOfId(id);
+        int rating = (position >= 0) ? trackList.get(position).getRating() : 0;
+        double ratingFactor = (rating == 0) ? 1.0 : Math.pow(2, (rating - 128) / 64.0);
+        return ratingFactor / Math.sqrt(1 + PlayHistory.getInstance().getPlayCount(id));
+    }
 
-            replayedTracks.push(playedTracks.pop());
+    // Artist of a track as a non-zero key, or 0 when unknown
+    private int artistKey(int id) {
+        int position = indexOfId(id);
+        if (position < 0) return 0;
 
-            if (!playedTracks.isEmpty()) {
-                setCurrentTrackIndex(playedTracks.peek());
-                System.out.println(
-                    "playedTracks: " + playedTracks.toString() +
-                    "\nreplayedTracks: " + replayedTracks.toString() +
-                    "\nShuffler.previousTrack() returned true after setting current track as " +
-                    getCurrentTrackIndex());
-                return true;
-            }
+        String artist = trackList.get(position).getArtist();
+        return artist.isEmpty() ? 0 : artist.hashCode() | 1;
+    }
 
-            int index = generateRandomIndex();
-            while (shuffleMap.containsKey(index) && shuffleMap.get(index) != index) {
-                index = shuffleMap.get(index);
-            }
-            shuffleMap.put(index, preIncrementSelector());
-            playedTracks.push(index);
-            setCurrentTrackIndex(index);
-
-            System.out.println("shuffleMap: " + shuffleMap.toString());
-            System.out.println("playedTracks: " + playedTracks.toString());
-            System.out.println("replayedTracks: " + replayedTracks.toString());
-            System.out.println("selector: " + selector);
-            System.out.println(
-                "Shuffler.previousTrack() returned true after setting current track as "
-                + getCurrentTrackIndex());
+    // Also called by the player when a looped track starts over
+    public void recordPlay(int id) {
+        PlayHistory.getInstance().recordPlay(id);
+        if (shuffler != null) shuffler.updateWeight(id);
+    }
 
+    /*
+     *  Plays the head of the queue, dropping entries whose track has left the library. In
+     *  library order, the track that was playing before the queue is remembered so that
+     *  playback continues after it once the queue runs out.
+     */
+    private boolean selectQueuedTrack() {
+        while (!playQueue.isEmpty()) {
+            int index = indexOfId(playQueue.poll());
+            if (index < 0) continue;
+
+            Track selected = getSelectedTrack();
+            int resumeId = (resumeTrackId >= 0) ? resumeTrackId : (selected != null) ? selected.getId() : -1;
+            selectIndex(index, shuffleEnabled ? -1 : resumeId);
             return true;
         }
+        return false;
+    }
 
-        boolean nextTrack() {   
-            System.out.println("Shuffler.nextTrack() was called");
+    // Position library order continues from: the track before the queue, or the current one
+    private int resumeIndex() {
+        int resumeIndex = (resumeTrackId >= 0) ? indexOfId(resumeTrackId) : -1;
+        return (resumeIndex >= 0) ? resumeIndex : currentTrackIndex;
+    }
 
-            if (playedTracks.size() == trackList.size()) {
-                System.out.println("Shuffler.nextTrack() returned false");
-                return false;
-            }
+    // Selects a track id returned by the shuffler; -1 means shuffling has nowhere to go
+    private boolean selectShuffled(int id) {
+        if (id < 0) return false;
+        setCurrentTrackIndex(indexOfId(id));
+        return true;
+    }
 
-            if (!replayedTracks.isEmpty()) {
-                playedTracks.push(replayedTracks.pop());
-                setCurrentTrackIndex(playedTracks.peek());
-                System.out.println(
-                    "playedTracks: " + playedTracks.toString() +
-                    "\nreplayedTracks: " + replayedTracks.toString() + 
-                    "\nShuffler.nextTrack() returned true after setting current track as " +
-                    getCurrentTrackIndex());
-                return true;
-            }
+    /*
+     *  The track nextTrack() would select, without selecting it, or null at the end of the list.
+     *  In shuffle mode the random pick is drawn here and kept, so a track pre-buffered from this
+     *  is the one that actually plays next.
+     */
+    public Track peekNextTrack() {
+        for (int i = 0; i < playQueue.size(); i++) {
+            int index = indexOfId(playQueue.get(i));
+            if (index >= 0) return trackList.get(index);
+        }
 
-            int index = generateRandomIndex();
-            while (shuffleMap.containsKey(index) && shuffleMap.get(index) != index) {
-                index = shuffleMap.get(index);
-            }
-            shuffleMap.put(index, preDecrementSelector());
-            playedTracks.push(index);
-            setCurrentTrackIndex(index);
-
-            System.out.println("shuffleMap: " + shuffleMap.toString());
-            System.out.println("playedTracks: " + playedTracks.toString());
-            System.out.println("replayedTracks: " + replayedTracks.toString());
-            System.out.println("selector: " + selector);
-            System.out.println(
-                "Shuffler.nextTrack() returned true after setting current track as "
-                + getCurrentTrackIndex());
+        if (shuffleEnabled) {
+            int id = shuffler.peekNext();
+            return (id >= 0) ? trackList.get(indexOfId(id)) : null;
+        }
 
-            return true;
+        int index = resumeIndex();
+        return (index < trackList.size() - 1) ? trackList.get(index + 1) : null;
+    }
+
+    /*
+     *  Tracks matching every word of the query (as prefixes of title/artist/album/file name
+     *  words), in library order. The search index is built on first use.
+     */
+    public List<Track> searchTracks(String query) {
+        int[] ids = getSearchIndex().search(query);
+        BitSet matches = new BitSet();
+        for (int id : ids) {
+            matches.set(id);
         }
 
-        void reset() {
-            shuffleMap.clear();
-            playedTracks.clear();
-            replayedTracks.clear();
-            selector = 0;
+        List<Track> results = new ArrayList<>(ids.length);
+        for (Track track : trackList) {
+            if (matches.get(track.getId())) results.add(track);
         }
+        return results;
     }
+
+    /*
+     *  Static gain in dB for a track from its cached loudness analysis, or NaN when it hasn't been
+     *  analyzed yet. With album gain on, a track tagged with an album is leveled like the analyzed
+     *  tracks of that album in the same folder (energy mean of their loudness, loudest peak), so
+     *  quiet and loud songs of one album keep their balance.
+     */
+    public double getLoudnessGain(Track track) {
+        LibraryIndex.Entry entry = libraryIndex.get(track.getFile().getPath());
+        if (entry == null || !entry.isAnalyzed()) return Double.NaN;
+
+        if (!SettingsService.getInstance().isAlbumGainEnabled() || entry.getAlbum().isEmpty()) {
+            return LoudnessAnalyzer.gainDb(entry.getIntegratedLufs(), entry.getTruePeakDb());
+        }
+
+        double energySum = 0;
+        int measured = 0;
+        double albumPeak = Double.NEGATIVE_INFINITY;
+        for (LibraryIndex.Entry other : libraryIndex.getAlbumEntries(entry)) {
+            if (!other.isAnalyzed()) continue;
+
+            if (!Float.isInfinite(other.getIntegratedLufs())) {
+                energySum += Math.pow(10, other.getIntegratedLufs() / 10.0);
+                measured++;
+            }
+            albumPeak = Math.max(albumPeak, other.getTruePeakDb());
+        }
+        if (measured == 0) return Double.NaN;
+
+        return LoudnessAnalyzer.gainDb(10 * Math.log10(energySum / measured), albumPeak);
+    }
+
+    public boolean isMusicFolderEmpty() {
+        return trackList.isEmpty();
+    }
+
 }
\ No newline at end of file